@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+
+import datamodel.FxSeries;
+import utils.GeneralUtils;
+
+/**
+ * Synthetic historical data for the benchmarks: one minute bars following a random walk (geometric brownian
+ * motion around 1.0, like AUDCAD). The same seed always returns the same data.
+ */
+public class BenchmarkData {
+
+	public static final String CURRENCY_PAIR = "AUDCAD";
+	public static final String START_DATE = "2011-01-02";
+	public static final long SEED = 42;
+
+	// Volatility per minute
+	private static final double VOLATILITY = 0.0003;
+
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+
+	// Series of the given number of bars, starting on START_DATE
+	public static FxSeries getSeries (final int bars, final long seed) {
+
+		FxSeries series = new FxSeries(CURRENCY_PAIR, bars);
+		Random random = new Random(seed);
+
+		int timestamp = GeneralUtils.getEpochMinutes(START_DATE, "17:00");
+		double close = 1.0;
+
+		for (int i=0; i<bars; i++) {
+			double open = close;
+			close = open * Math.exp(VOLATILITY * random.nextGaussian());
+			double high = Math.max(open, close) * (1 + (VOLATILITY * Math.abs(random.nextGaussian()) / 2));
+			double low = Math.min(open, close) * (1 - (VOLATILITY * Math.abs(random.nextGaussian()) / 2));
+
+			// Rounded to 5 decimals, as in the historical data files
+			series.add(timestamp + i, round(open), round(high), round(low), round(close));
+		}
+		return series;
+	}
+
+	// Writes the series as an historical data file (date,time,open,high,low,close)
+	public static void writeCsv (final FxSeries series, final File file) throws IOException {
+
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+			for (int i=0; i<series.size(); i++) {
+				LocalDateTime dateTime = LocalDateTime.ofEpochSecond(series.getTimestamps()[i] * 60L, 0, ZoneOffset.UTC);
+				writer.write(dateTime.format(DATE_FORMAT));
+				writer.write(',');
+				writer.write(dateTime.format(TIME_FORMAT));
+				writer.write(String.format(Locale.US, ",%.5f,%.5f,%.5f,%.5f", series.getOpen()[i], series.getHigh()[i], series.getLow()[i], series.getClose()[i]));
+				writer.newLine();
+			}
+		}
+	}
+
+	private static float round (final double value) {
+		return (float) (Math.round(value * 100000) / 100000.0);
+	}
+}
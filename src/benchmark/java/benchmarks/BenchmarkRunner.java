@@ -0,0 +1,27 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result comes with its allocation rate (gc.alloc.rate and
+ * gc.alloc.rate.norm, bytes per operation) besides the throughput.
+ * Accepts the JMH command line options, i.e. a benchmark name regexp or -p bars=100000
+ */
+public class BenchmarkRunner {
+
+	public static void main (String args[]) throws Exception {
+
+		Options commandLineOptions = new CommandLineOptions(args);
+
+		Options options = new OptionsBuilder()
+				.parent(commandLineOptions)
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,91 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import calculationservices.CalculationEngine;
+import calculationservices.CalculationEngineFactory;
+import calculationservices.StreamingCalculationEngine;
+import datamodel.CalcParameters;
+import datamodel.FxSeries;
+
+/**
+ * Calculations of a whole series (as RunnableWorkerThread.executeCalculations, engine creation included), in series
+ * per second. Sequential: the parallel engine depends on the processors of the machine.
+ * The loop engine is O(n^2) when the levels are not reached, so it is only run when asked for (-p engine=loop).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class CalculationEngineBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	public int bars;
+
+	@Param({"5", "15"})
+	public int maxLevels;
+
+	@Param({"0.05"})
+	public float percentage;
+
+	// [loop | indexed | streaming]
+	@Param({"indexed", "streaming"})
+	public String engine;
+
+	private FxSeries series;
+	private CalcParameters params;
+
+	@Setup(Level.Trial)
+	public void setup () {
+		series = BenchmarkData.getSeries(bars, BenchmarkData.SEED);
+		params = new CalcParameters(percentage, percentage, maxLevels, 0, CalcParameters.HORIZON_BARS);
+	}
+
+	@Benchmark
+	public long executeCalculations (final Blackhole blackhole) {
+
+		long[] upHits;
+		long[] downHits;
+		long totalCalculations;
+
+		if ("streaming".equals(engine)) {
+			StreamingCalculationEngine streamingEngine = new StreamingCalculationEngine(params);
+			int[] timestamps = series.getTimestamps();
+			float[] open = series.getOpen();
+			float[] high = series.getHigh();
+			float[] low = series.getLow();
+			float[] close = series.getClose();
+			for (int i=0; i<series.size(); i++) {
+				streamingEngine.add(timestamps[i], open[i], high[i], low[i], close[i]);
+			}
+			upHits = streamingEngine.getUpHits();
+			downHits = streamingEngine.getDownHits();
+			totalCalculations = streamingEngine.getTotalCalculations();
+		} else {
+			CalculationEngine calculationEngine = CalculationEngineFactory.getEngine(engine, series, 1);
+			upHits = new long[maxLevels+1];
+			downHits = new long[maxLevels+1];
+			totalCalculations = calculationEngine.executeCalculations(0, series.size(), params, upHits, downHits, null);
+		}
+
+		blackhole.consume(upHits);
+		blackhole.consume(downHits);
+		return totalCalculations;
+	}
+}
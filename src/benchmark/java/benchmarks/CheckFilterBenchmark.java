@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datamodel.FxRate;
+import utils.GeneralUtils;
+
+/**
+ * Date filter of every row of the historical data files, in rows per second.
+ * epochMinutes is the conversion used by the parser and the database loading, for reference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckFilterBenchmark {
+
+	// Within and out of the dates
+	@Param({"2011-06-15", "2012-01-02"})
+	public String rowDate;
+
+	public String startDate = "2011-01-02";
+	public String endDate = "2011-12-31";
+
+	@Benchmark
+	public boolean checkFilter () throws Exception {
+		return FxRate.checkFilter(rowDate, startDate, endDate);
+	}
+
+	@Benchmark
+	public int epochMinutes () {
+		return GeneralUtils.getEpochMinutes(rowDate, "17:00");
+	}
+}
@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.opencsv.CSVReader;
+
+import datamodel.FxRate;
+import datamodel.FxRateConsumer;
+import utils.HistoricalDataParser;
+
+/**
+ * Loading of an historical data file (AUDCAD.csv format) of the given rows, in files per second.
+ * opencsv is the original loading (CSVReader plus an FxRate, with its date filter, per row).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoricalDataParserBenchmark {
+
+	@Param({"100000"})
+	public int rows;
+
+	private File file;
+	private String endDate;
+
+	@Setup(Level.Trial)
+	public void setup () throws Exception {
+		file = File.createTempFile(BenchmarkData.CURRENCY_PAIR, ".csv");
+		BenchmarkData.writeCsv(BenchmarkData.getSeries(rows, BenchmarkData.SEED), file);
+		// Every row is within the dates
+		endDate = "2099-12-31";
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown () {
+		file.delete();
+	}
+
+	@Benchmark
+	public long parser (final Blackhole blackhole) throws Exception {
+		return HistoricalDataParser.parse(file, ',', BenchmarkData.START_DATE, endDate, 0, 1, false, new FxRateConsumer() {
+			@Override
+			public void add (final int timestamp, final float open, final float high, final float low, final float close) {
+				blackhole.consume(timestamp);
+				blackhole.consume(close);
+			}
+		});
+	}
+
+	@Benchmark
+	public long opencsv (final Blackhole blackhole) throws Exception {
+		long rows = 0;
+		try (CSVReader reader = new CSVReader(new FileReader(file), ',')) {
+			String[] nextLine;
+			while ((nextLine = reader.readNext()) != null) {
+				blackhole.consume(new FxRate(BenchmarkData.CURRENCY_PAIR, nextLine, (int) rows, BenchmarkData.START_DATE, endDate));
+				rows++;
+			}
+		}
+		return rows;
+	}
+}
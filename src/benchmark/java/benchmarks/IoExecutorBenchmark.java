@@ -0,0 +1,111 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datamodel.FxSeries;
+import executionservices.IoExecutors;
+import utils.ApplicationProperties;
+import utils.DatabaseConnection;
+import utils.DatabaseUtils;
+
+/**
+ * Loading of many pairs from the database by the I/O stage of the pipeline (checkIfCurrencyExists and
+ * populateHistoricalFxData of every pair), in ms per run, with platform or virtual threads (workerpool.ioExecutor).
+ * Every pair loads the table of currency within execution.startDate and execution.endDate.
+ * Needs the database of application.properties (database.*), with database.maxConnections >= ioThreads so the loads
+ * are not limited by the connections. Virtual threads need the java21 profile: mvn -P java21,benchmark package
+ * i.e. java -jar target/benchmarks.jar IoExecutor -p currency=AUDCAD
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class IoExecutorBenchmark {
+
+	@Param({"platform", "virtual"})
+	public String ioExecutor;
+
+	@Param({"128"})
+	public int pairs;
+
+	// Concurrent loads
+	@Param({"8", "128"})
+	public int ioThreads;
+
+	@Param({"AUDCAD"})
+	public String currency;
+
+	private String startDate;
+	private String endDate;
+	private ExecutorService executor;
+
+	@Setup(Level.Trial)
+	public void setup () {
+		startDate = ApplicationProperties.getStringProperty("execution.startDate");
+		endDate = ApplicationProperties.getStringProperty("execution.endDate");
+		if (!DatabaseUtils.checkCurrencyTableExists(currency)) {
+			throw new IllegalStateException("No table for " + currency + " in the database of application.properties");
+		}
+		executor = IoExecutors.newIoExecutor(ioExecutor, ioThreads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown () {
+		executor.shutdown();
+		DatabaseConnection.closeConnection();
+	}
+
+	@Benchmark
+	public long loadPairs () throws Exception {
+
+		final Semaphore loadPermits = new Semaphore(ioThreads);
+		List<Future<Integer>> loads = new ArrayList<Future<Integer>>(pairs);
+
+		for (int i=0; i<pairs; i++) {
+			loads.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call () throws Exception {
+					loadPermits.acquire();
+					try {
+						DatabaseUtils.checkCurrencyTableExists(currency);
+						FxSeries series = DatabaseUtils.getHistoricalRates(currency, startDate, endDate);
+						if (series == null) {
+							throw new IllegalStateException("Historical rates of " + currency + " not retrieved");
+						}
+						return series.size();
+					} finally {
+						loadPermits.release();
+					}
+				}
+			}));
+		}
+
+		long rows = 0;
+		for (Future<Integer> load : loads) {
+			rows += load.get();
+		}
+		return rows;
+	}
+}
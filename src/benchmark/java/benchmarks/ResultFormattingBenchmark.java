@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datamodel.CalcResult;
+import resultservices.PipeResultsSink;
+
+/**
+ * Formatting of a results line (PipeResultsSink.printCurrencyLevels), in lines per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultFormattingBenchmark {
+
+	@Param({"15", "50"})
+	public int maxLevels;
+
+	private CalcResult calcResult;
+	private final DecimalFormat percentageFormat = new DecimalFormat("#.##");
+
+	@Setup
+	public void setup () {
+		long[] upHits = new long[maxLevels+1];
+		long[] downHits = new long[maxLevels+1];
+		// Hits halving on every level, as in the real results
+		for (int level=1; level<=maxLevels; level++) {
+			upHits[level] = 1000000L >> level;
+			downHits[level] = 900000L >> level;
+		}
+		calcResult = new CalcResult(BenchmarkData.CURRENCY_PAIR, 1.01f, 0.99f, maxLevels, 0, 0, 0, 0, 0, 0, upHits, downHits);
+	}
+
+	@Benchmark
+	public String printCurrencyLevels () {
+		return PipeResultsSink.printCurrencyLevels(BenchmarkData.CURRENCY_PAIR, calcResult, maxLevels, percentageFormat);
+	}
+}
@@ -0,0 +1,16 @@
+package executionservices;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual thread executors, only compiled by the java21 profile (mvn -P java21 package, Java 21+).
+ * The Java 8 code loads this class by reflection (IoExecutors) and falls back to platform threads without it.
+ */
+public class VirtualThreadExecutors {
+
+	// One new virtual thread per task, named prefix + number
+	public static ExecutorService newExecutor (final String prefix) {
+		return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory());
+	}
+}
@@ -1,28 +1,39 @@
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.text.DecimalFormat;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import datamodel.CalcParameters;
 import datamodel.CalcResult;
-import executionservices.RejectedExecutionHandlerImpl;
+import distributedservices.DistributedCoordinator;
+import distributedservices.DistributedWorker;
+import executionservices.AdmissionController;
+import executionservices.ExecutionMetrics;
+import executionservices.LoadPipeline;
+import executionservices.MetricsHttpServer;
 import executionservices.RunnableWorkerThread;
-import executionservices.SystemLinkedBlockingQueue;
 import executionservices.SystemMonitorThread;
 import executionservices.SystemThreadPoolExecutor;
+import executionservices.WorkerCostComparator;
+import resultservices.PipeResultsSink;
+import resultservices.ResultsSink;
+import resultservices.ResultsSinkFactory;
 import utils.ApplicationProperties;
 import utils.DatabaseConnection;
 import utils.GeneralUtils;
+import utils.ResultCache;
 
 public class Application {
 
@@ -30,14 +41,28 @@ public class Application {
 	private static Logger logger = LoggerFactory.getLogger(Application.class);
 
 	// WorkerPool parameters 
-	private static int poolCoreSize;	
 	private static int poolMaxSize; 
-	private static int queueCapacity; 
 	private static int timeoutSecs; 
-	private static int retrySleepTime; 
-	private static int retryMaxAttempts; 
 	private static int initialSleep; 
 	private static int monitorSleep;
+	private static int metricsPort;
+	private static boolean pipeline;
+	private static int ioThreads;
+	private static String ioExecutor;
+	private static int pipelineBufferMb;
+	private static int memoryBudgetMb;
+	private static String scheduler;
+
+	// Distributed parameters
+	private static String mode;
+	private static List<String> distributedWorkers;
+	private static int distributedWorkerPort;
+	private static int connectionsPerWorker;
+	private static int dateShards;
+	private static int distributedTimeoutSecs;
+	private static int distributedKeepAliveSecs;
+	private static int distributedRetryMaxAttempts;
+	private static int distributedRetrySleepTime;
 
 	// Execution time
 	private static long applicationStartTime;	
@@ -48,9 +73,14 @@ public class Application {
 	private static String historicalDataPath;
 	private static String historicalDataFileExtension;
 	private static String historicalDataSeparator;
+	private static boolean historicalDataCache;
+	private static boolean resultCache;
 	private static int printAfter = 0;
 	private static boolean writeResultsToFile = false; 
 	private static String resultsPath;
+	private static String resultsFormat;
+	// Results file, written as the pairs complete (null when not writing results to file)
+	private static ResultsSink resultsSink;
 	
 	private static String datasource;
 
@@ -63,20 +93,32 @@ public class Application {
 	private static List<String> currencyPairs;
 	private static String startDate;
 	private static String endDate;
-	private static float increasePercentage;
-	private static float decreasePercentage;
-	private static int maxLevels;
+	private static List<Float> increasePercentages;
+	private static List<Float> decreasePercentages;
+	private static List<Integer> maxLevels;
+	private static int maxHorizon;
+	private static String maxHorizonUnit;
+	private static String calculationEngine;
+	private static int parallelism;
 
 	private static long totalExecutions;
 	private static long totalHistDataLoaded;
 	private static long totalCalculations;
 	private static long totalResults;
 	private static long avgExecutionTime;
+	// Makespan of the workers and CPU time used meanwhile by the whole process, GC and JIT included (-1 when not available)
+	private static long makespanMillis;
+	private static long cpuTimeMillis;
 	
 	private static final String applicationId = (""+System.currentTimeMillis());
+
+	// Results are printed by the main thread only, so a single format is reused for every percentage
+	private static final DecimalFormat percentageFormat = new DecimalFormat("#.##");
 	
 	// Lists and Maps
-	private static Map<String,CalcResult> calcResultsMap = new HashMap<String,CalcResult>();
+	// Parameter combinations to be calculated (more than one when sweeping) and their Calculation Result Maps (same order)
+	private static List<CalcParameters> calcParametersList;
+	private static List<Map<String,CalcResult>> calcResultsMaps = new ArrayList<Map<String,CalcResult>>();
 	
     public static void main (String args[]) {
 
@@ -87,12 +129,42 @@ public class Application {
 
 		// Load properties from file
 		loadProperties ();
+
+		// Mode and worker port can be given as arguments: [local | coordinator | worker [port]]
+		if (args.length > 0) {
+			mode = args[0];
+		}
+		if (args.length > 1) {
+			distributedWorkerPort = Integer.parseInt(args[1]);
+		}
     	
 		// Print parameters used
 		printParameters ("Start");
+
+		// Execution metrics available through JMX while running
+		ExecutionMetrics.register();
+
+		if (ApplicationProperties.getBooleanProperty("main.resultCacheClear")) {
+			ResultCache.clear();
+		}
+
+		if ("worker".equals(mode)) {
+			// Calculates the tasks of the coordinators until stopped
+			executeDistributedWorker ();
+			logger.info("Application finished");
+			System.exit(0);
+		}
 		
-		// Execute workers
-		executeWorkers ();
+		if (writeResultsToFile) {
+			resultsSink = ResultsSinkFactory.getSink(resultsFormat, resultsPath, calcParametersList, printExecutionParams());
+		}
+		
+		// Execute workers (locally or in the distributed workers)
+		if ("coordinator".equals(mode)) {
+			executeDistributedWorkers ();
+		} else {
+			executeWorkers ();
+		}
         
 		applicationStopTime = System.currentTimeMillis();
 
@@ -107,31 +179,69 @@ public class Application {
     
     private static void executeWorkers () {
 
-		// RejectedExecutionHandler implementation 
-		RejectedExecutionHandlerImpl rejectionHandler = new RejectedExecutionHandlerImpl(); 
-		
 		// Get the ThreadFactory implementation to use 
 		ThreadFactory threadFactory = Executors.defaultThreadFactory();
 		
-		/* Define the BlockingQueue. 
-		 * ArrayBlockingQueue to set a fixed capacity queue
-		 * LinkedBlockingQueue to set an unbound capacity queue
+		/* Define the BlockingQueue (unbounded, so the pool runs workerpool.maxSize threads). 
+		 * largestFirst: PriorityBlockingQueue, highest estimated cost first (pairs handed off by the pipeline too)
+		 * fifo: LinkedBlockingQueue, execution.currencyPairs order
 		*/
-		SystemLinkedBlockingQueue<Runnable> blockingQueue = new SystemLinkedBlockingQueue<Runnable>();		
+		boolean largestFirst = "largestFirst".equals(scheduler);
+		BlockingQueue<Runnable> blockingQueue = largestFirst ? new PriorityBlockingQueue<Runnable>(Math.max(1, currencyPairs.size()), new WorkerCostComparator()) : new LinkedBlockingQueue<Runnable>();
 		
 		// Create the ThreadPoolExecutor
-		SystemThreadPoolExecutor executorPool = new SystemThreadPoolExecutor(poolCoreSize, poolMaxSize, timeoutSecs, TimeUnit.SECONDS, blockingQueue, threadFactory, rejectionHandler); 
+		SystemThreadPoolExecutor executorPool = new SystemThreadPoolExecutor(poolMaxSize, poolMaxSize, timeoutSecs, TimeUnit.SECONDS, blockingQueue, threadFactory); 
+
+		// Optional metrics endpoint (Prometheus)
+		MetricsHttpServer metricsServer = null;
 
     	try { 
 
+			if (metricsPort > 0) {
+				metricsServer = new MetricsHttpServer(executorPool);
+				metricsServer.start(metricsPort);
+			}
+
 			logger.info ("Starting workers");
+
+			long makespanStartTime = System.currentTimeMillis();
+			long cpuStartTime = GeneralUtils.getProcessCpuTime();
 	
 			CountDownLatch latch = new CountDownLatch(currencyPairs.size());
-			
+
+			List<RunnableWorkerThread> workers = new ArrayList<RunnableWorkerThread>();
 			for (String currentCurrency : currencyPairs) {
+				RunnableWorkerThread worker = new RunnableWorkerThread(datasource, currentCurrency, calcParametersList, calcResultsMaps, latch);
+				worker.setResultsSink(resultsSink);
+				workers.add(worker);
+			}
+
+			// Largest first: a large pair submitted last would keep the run waiting with the other threads idle
+			if (largestFirst) {
+				for (RunnableWorkerThread worker : workers) {
+					worker.estimateCost();
+				}
+				Collections.sort(workers, new WorkerCostComparator());
+				for (RunnableWorkerThread worker : workers) {
+					logger.debug ("  " + worker.getCurrentCurrency() + " -> estimated cost " + String.format("%,d", worker.getEstimatedCost()));
+				}
+			}
+
+			// Pipelined: pairs are loaded by the I/O stage and then calculated by the pool
+			LoadPipeline loadPipeline = pipeline ? new LoadPipeline(ioExecutor, ioThreads, pipelineBufferMb * 1024L * 1024L, executorPool) : null;
+
+			// Workers are admitted when their estimated footprint fits in the memory budget
+			AdmissionController admission = (memoryBudgetMb > 0) ? new AdmissionController(memoryBudgetMb * 1024L * 1024L, executorPool, loadPipeline) : null;
+			
+			for (RunnableWorkerThread worker : workers) {
 				
-				// if ((executorPool.getActiveCount() < executorPool.getMaximumPoolSize()) || (blockingQueue.size() < queueCapacity)) { // For LinkedBlockingQueue 
-				executorPool.execute(new RunnableWorkerThread(datasource, currentCurrency, calcResultsMap, latch));
+				if (admission != null) {
+					admission.submit(worker);
+				} else if (loadPipeline != null) {
+					loadPipeline.submit(worker);
+				} else {
+					executorPool.execute(worker);
+				}
 			}
 
 			// Start the monitoring thread 
@@ -146,6 +256,17 @@ public class Application {
 			logger.info ("Shutting down monitor thread..."); 
 			monitor.shutdown();
 
+			if (loadPipeline != null) {
+				loadPipeline.shutdown();
+			}
+
+			// Workers count down before afterExecute records their totals: wait for it
+			executorPool.shutdown();
+			executorPool.awaitTermination(timeoutSecs, TimeUnit.SECONDS);
+
+			makespanMillis = System.currentTimeMillis() - makespanStartTime;
+			cpuTimeMillis = (cpuStartTime < 0) ? -1 : (GeneralUtils.getProcessCpuTime() - cpuStartTime) / 1000000;
+
 			totalExecutions = executorPool.getTotalExecutions();
 			totalHistDataLoaded = executorPool.getTotalHistDataLoaded();
 			totalCalculations = executorPool.getTotalCalculations();
@@ -154,27 +275,88 @@ public class Application {
 		} catch (Exception e) { 
 			e.printStackTrace(); 
 		} finally {
+			if (metricsServer != null) {
+				metricsServer.stop();
+			}
 			DatabaseConnection.closeConnection();
 		}
 	} 
     
+    // Coordinator: the pairs are calculated by the distributed workers (distributed.workers) and merged here
+    private static void executeDistributedWorkers () {
+
+    	try {
+			logger.info ("Starting distributed workers");
+
+			long makespanStartTime = System.currentTimeMillis();
+
+			DistributedCoordinator coordinator = new DistributedCoordinator(datasource, distributedWorkers, connectionsPerWorker, distributedTimeoutSecs, distributedRetryMaxAttempts, distributedRetrySleepTime);
+			coordinator.setResultsSink(resultsSink);
+			coordinator.execute(currencyPairs, startDate, endDate, dateShards, calcParametersList, calcResultsMaps);
+			logger.info("All distributed workers finished");
+
+			makespanMillis = System.currentTimeMillis() - makespanStartTime;
+			// CPU time is spent by the workers, not by this process
+			cpuTimeMillis = -1;
+
+			ExecutionMetrics metrics = ExecutionMetrics.getInstance();
+			totalExecutions = metrics.getTotalExecutions();
+			totalHistDataLoaded = metrics.getTotalHistDataLoaded();
+			totalCalculations = metrics.getTotalCalculations();
+			totalResults = metrics.getTotalResults();
+			avgExecutionTime = metrics.getAvgExecutionTime();
+		} catch (Exception e) { 
+			logger.error ("Exception: " + e.getClass() + " - " + e.getMessage());
+		} finally {
+			DatabaseConnection.closeConnection();
+		}
+    }
+
+    // Worker: serves the coordinators on distributed.workerPort
+    private static void executeDistributedWorker () {
+
+    	try {
+			new DistributedWorker(datasource, distributedKeepAliveSecs).serve(distributedWorkerPort);
+		} catch (Exception e) { 
+			logger.error ("Exception: " + e.getClass() + " - " + e.getMessage());
+		} finally {
+			DatabaseConnection.closeConnection();
+		}
+    }
+    
     private static void loadProperties () {
 
-		poolCoreSize = ApplicationProperties.getIntProperty("workerpool.coreSize");
 		poolMaxSize = ApplicationProperties.getIntProperty("workerpool.maxSize");
-		queueCapacity = ApplicationProperties.getIntProperty("workerpool.queueCapacity");
 		timeoutSecs = ApplicationProperties.getIntProperty("workerpool.timeoutSecs");
-		retrySleepTime = ApplicationProperties.getIntProperty("workerpool.retrySleepTime");
-		retryMaxAttempts = ApplicationProperties.getIntProperty("workerpool.retryMaxAttempts");
 		monitorSleep = ApplicationProperties.getIntProperty("workerpool.monitorSleep");
+		metricsPort = ApplicationProperties.getIntProperty("workerpool.metricsPort");
+		pipeline = ApplicationProperties.getBooleanProperty("workerpool.pipeline");
+		ioThreads = ApplicationProperties.getIntProperty("workerpool.ioThreads");
+		ioExecutor = ApplicationProperties.getStringProperty("workerpool.ioExecutor");
+		pipelineBufferMb = ApplicationProperties.getIntProperty("workerpool.pipelineBufferMb");
+		memoryBudgetMb = ApplicationProperties.getIntProperty("workerpool.memoryBudgetMb");
+		scheduler = ApplicationProperties.getStringProperty("workerpool.scheduler");
+
+		mode = ApplicationProperties.getStringProperty("distributed.mode");
+		distributedWorkers = ApplicationProperties.getListProperty("distributed.workers");
+		distributedWorkerPort = ApplicationProperties.getIntProperty("distributed.workerPort");
+		connectionsPerWorker = ApplicationProperties.getIntProperty("distributed.connectionsPerWorker");
+		dateShards = ApplicationProperties.getIntProperty("distributed.dateShards");
+		distributedTimeoutSecs = ApplicationProperties.getIntProperty("distributed.timeoutSecs");
+		distributedKeepAliveSecs = ApplicationProperties.getIntProperty("distributed.keepAliveSecs");
+		distributedRetryMaxAttempts = ApplicationProperties.getIntProperty("distributed.retryMaxAttempts");
+		distributedRetrySleepTime = ApplicationProperties.getIntProperty("distributed.retrySleepTime");
 		
 		historicalDataPath = ApplicationProperties.getStringProperty("main.historicalDataPath");
 		historicalDataFileExtension = ApplicationProperties.getStringProperty("main.historicalDataFileExtension");
 		historicalDataSeparator = ApplicationProperties.getStringProperty("main.historicalDataSeparator");
+		historicalDataCache = ApplicationProperties.getBooleanProperty("main.historicalDataCache");
+		resultCache = ApplicationProperties.getBooleanProperty("main.resultCache");
 		
 		printAfter = ApplicationProperties.getIntProperty("test.printAfter");
 		writeResultsToFile = ApplicationProperties.getBooleanProperty("main.writeResultsToFile");
 		resultsPath = ApplicationProperties.getStringProperty("main.resultsPath");
+		resultsFormat = ApplicationProperties.getStringProperty("main.resultsFormat");
 		
 		datasource = ApplicationProperties.getStringProperty("main.datasource");
 		databaseHost = ApplicationProperties.getStringProperty("database.host");
@@ -186,12 +368,20 @@ public class Application {
 		currencyPairs = ApplicationProperties.getListProperty("execution.currencyPairs");
 		startDate = ApplicationProperties.getStringProperty("execution.startDate");
 		endDate = ApplicationProperties.getStringProperty("execution.endDate");
-		increasePercentage = ApplicationProperties.getFloatProperty("execution.increasePercentage");
-		decreasePercentage = ApplicationProperties.getFloatProperty("execution.decreasePercentage");
-		maxLevels = ApplicationProperties.getIntProperty("execution.maxLevels");
+		increasePercentages = ApplicationProperties.getFloatListProperty("execution.increasePercentage");
+		decreasePercentages = ApplicationProperties.getFloatListProperty("execution.decreasePercentage");
+		maxLevels = ApplicationProperties.getIntListProperty("execution.maxLevels");
+		maxHorizon = ApplicationProperties.getIntProperty("execution.maxHorizon");
+		maxHorizonUnit = ApplicationProperties.getStringProperty("execution.maxHorizonUnit");
+		calculationEngine = ApplicationProperties.getStringProperty("execution.calculationEngine");
+		parallelism = ApplicationProperties.getIntProperty("execution.parallelism");
 		numberOfRecords = ApplicationProperties.getIntProperty("test.numberOfRecords");
 		printAfter = ApplicationProperties.getIntProperty("test.printAfter");
 
+		calcParametersList = CalcParameters.getCombinations(increasePercentages, decreasePercentages, maxLevels, maxHorizon, maxHorizonUnit);
+		for (int i=0; i<calcParametersList.size(); i++) {
+			calcResultsMaps.add(new ConcurrentHashMap<String,CalcResult>());
+		}
     }
     
 	// Print execution parameters 
@@ -200,14 +390,22 @@ public class Application {
 		logger.info ("**************************************************"); 
 		logger.info (title + " WorkerPool with the following parameters:"); 
 		logger.info ("**************************************************"); 
-		logger.info ("  - pool core size           : " + poolCoreSize); 
 		logger.info ("  - pool max size            : " + poolMaxSize); 
-		logger.info ("  - queue capacity           : " + queueCapacity); 
 		logger.info ("  - timeout (secs)           : " + timeoutSecs); 
-		logger.info ("  - retry sleep (ms)         : " + retrySleepTime); 
-		logger.info ("  - retry max attempts       : " + retryMaxAttempts);
 		logger.info ("  - initial sleep (secs)     : " + initialSleep); 
 		logger.info ("  - monitor sleep (secs)     : " + monitorSleep); 
+		logger.info ("  - metrics port             : " + ((metricsPort > 0) ? metricsPort : "disabled")); 
+		logger.info ("  - pipeline                 : " + (pipeline ? (ioThreads + " " + ioExecutor + " I/O threads, " + pipelineBufferMb + " MB buffer") : "disabled")); 
+		logger.info ("  - memory budget            : " + ((memoryBudgetMb > 0) ? (memoryBudgetMb + " MB") : "disabled")); 
+		logger.info ("  - scheduler                : " + scheduler); 
+		logger.info ("  - mode                     : " + mode); 
+		if ("coordinator".equals(mode)) {
+			logger.info ("  - distributed workers      : " + distributedWorkers + " (" + connectionsPerWorker + " connections each)"); 
+			logger.info ("  - date shards per pair     : " + dateShards); 
+		} else if ("worker".equals(mode)) {
+			logger.info ("  - worker port              : " + distributedWorkerPort); 
+			logger.info ("  - keep-alive (secs)        : " + distributedKeepAliveSecs); 
+		}
 		logger.info ("**************************************************");
 
 		logger.info ("");
@@ -218,6 +416,8 @@ public class Application {
 		logger.info ("  - hist. data path          : " + historicalDataPath);
 		logger.info ("  - hist. data extension     : " + historicalDataFileExtension);
 		logger.info ("  - hist. data separator     : " + historicalDataSeparator);
+		logger.info ("  - hist. data cache         : " + historicalDataCache);
+		logger.info ("  - result cache             : " + resultCache);
 
 		logger.info ("  - database host            : " + databaseHost);
 		logger.info ("  - database port            : " + databasePort);
@@ -228,14 +428,19 @@ public class Application {
 		logger.info ("  - currency pairs           : " + currencyPairs.toString());
 		logger.info ("  - start date               : " + startDate);
 		logger.info ("  - end date                 : " + endDate);
-		logger.info ("  - increase percentage      : " + increasePercentage);
-		logger.info ("  - decrease percentage      : " + decreasePercentage);
+		logger.info ("  - increase percentage      : " + increasePercentages);
+		logger.info ("  - decrease percentage      : " + decreasePercentages);
 		logger.info ("  - max. levels              : " + maxLevels);
+		logger.info ("  - combinations             : " + calcParametersList.size());
+		logger.info ("  - max. horizon             : " + maxHorizon + " " + maxHorizonUnit);
+		logger.info ("  - calculation engine       : " + calculationEngine);
+		logger.info ("  - parallelism per pair     : " + parallelism);
 		logger.info ("  - number of records [test] : " + numberOfRecords); 
 		logger.info ("  - print after [test]       : " + printAfter);
 
 		logger.info ("  - write results to file    : " + writeResultsToFile);
 		logger.info ("  - results path             : " + resultsPath);
+		logger.info ("  - results format           : " + resultsFormat);
 		logger.info ("****************************************************");
 		logger.info ("");
 	}
@@ -243,7 +448,7 @@ public class Application {
 	// Print execution times
 	private static void printResults () {
 
-		Path path = null;
+		ExecutionMetrics metrics = ExecutionMetrics.getInstance();
 
 		logger.info ("");
 		logger.info ("Total figures:");
@@ -253,44 +458,68 @@ public class Application {
 		logger.info ("  - Total historical data    : " + String.format("%,d", totalHistDataLoaded));
 		logger.info ("  - Total calculations       : " + String.format("%,d", totalCalculations)); 
 		logger.info ("  - Total results            : " + String.format("%,d", totalResults));
+		if (metrics.getCachedCombinations() > 0) {
+			logger.info ("  - Cached results           : " + String.format("%,d", metrics.getCachedResults()) + " (" + String.format("%,d", metrics.getCachedCombinations()) + " combinations read from the result cache, not in the totals)");
+		}
 		logger.info ("  - Elapsed time             : " + GeneralUtils.printElapsedTime (applicationStartTime,applicationStopTime));
+		logger.info ("  - Bars/sec                 : " + String.format("%,.0f", metrics.getBarsPerSecond()));
+		logger.info ("  - Calculations/sec         : " + String.format("%,.0f", metrics.getCalculationsPerSecond()));
+		logger.info ("  - Execution p50/p99/max    : " + printLatencies (metrics.getExecutionTimeP50(), metrics.getExecutionTimeP99(), metrics.getExecutionTimeMax()));
+		logger.info ("  - Load p50/p99/max         : " + printLatencies (metrics.getLoadTimeP50(), metrics.getLoadTimeP99(), metrics.getLoadTimeMax()));
+		logger.info ("  - Calculation p50/p99/max  : " + printLatencies (metrics.getCalculationTimeP50(), metrics.getCalculationTimeP99(), metrics.getCalculationTimeMax()));
+		logger.info ("  - Makespan                 : " + GeneralUtils.printElapsedTime (makespanMillis));
+		if (cpuTimeMillis >= 0) {
+			// Ideal makespan: all the work evenly spread over the cores. The work is the CPU time of the process, so it
+			// also counts the GC and JIT threads (an upper bound of the CPU time of the workers)
+			int cores = Runtime.getRuntime().availableProcessors();
+			long idealMakespanMillis = cpuTimeMillis / cores;
+			logger.info ("  - Process CPU time         : " + GeneralUtils.printElapsedTime (cpuTimeMillis) + " on " + cores + " cores (GC and JIT included)");
+			logger.info ("  - Ideal makespan (CPU)     : " + GeneralUtils.printElapsedTime (idealMakespanMillis) + " (" + ((makespanMillis > 0) ? percentageFormat.format(100.0 * idealMakespanMillis / makespanMillis) : "-") + "% of the makespan)");
+		}
 		logger.info ("**************************************************");
 		logger.info ("");
 		logger.info ("Results:");
 		logger.info ("**************************************************");
 		
 		
-		if (calcResultsMap != null && calcResultsMap.size() > 0) {
+		// One results table per combination of parameters
+		for (int i=0; i<calcParametersList.size(); i++) {
 
-			logger.info (printCurrencyLevelsHeader(maxLevels));
-			
-			if (writeResultsToFile) {
-				path = Paths.get(resultsPath + (LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HHmmss"))+".csv"));
-				GeneralUtils.writeTextToFile(path, printExecutionParams());
-				GeneralUtils.writeTextToFile(path, printCurrencyLevelsHeader(maxLevels));
+			CalcParameters params = calcParametersList.get(i);
+			Map<String,CalcResult> calcResultsMap = calcResultsMaps.get(i);
+
+			if (calcResultsMap == null || calcResultsMap.size() == 0) {
+				continue;
+			}
+
+			if (calcParametersList.size() > 1) {
+				logger.info (params.toString());
 			}
+
+			logger.info (PipeResultsSink.printCurrencyLevelsHeader(params.getMaxLevels()));
 			
 			for (String currency : currencyPairs) {
 				
-				if (calcResultsMap.containsKey(currency)) {
-					logger.info (printCurrencyLevels (currency, ((CalcResult)calcResultsMap.get(currency)).getLevelResults(), maxLevels));
-					
-					if (writeResultsToFile) {
-						GeneralUtils.writeTextToFile(path, printCurrencyLevels (currency, ((CalcResult)calcResultsMap.get(currency)).getLevelResults(), maxLevels));
-					}
-				} else {
-					logger.info (printCurrencyLevels (currency, null, maxLevels));
-					if (writeResultsToFile) {
-						GeneralUtils.writeTextToFile(path, printCurrencyLevels (currency, null, maxLevels));
-					}
-				}
+				// Pairs without data are printed with zeros (null result)
+				long reportStartTime = System.nanoTime();
+				logger.info (PipeResultsSink.printCurrencyLevels (currency, calcResultsMap.get(currency), params.getMaxLevels(), percentageFormat));
+				metrics.recordReport(System.nanoTime() - reportStartTime);
 			}
 			logger.info ("**************************************************");
 			logger.info("");
-			if (writeResultsToFile) {
-				logger.info("Results written into file: " + path.toString());
-			}
 		}
+
+		// The pairs have been written as they completed: only the totals are left
+		if (resultsSink != null) {
+			resultsSink.close(printExecutionTotals());
+			logger.info("Results written into file: " + resultsSink.getPath().toString());
+		}
+		logger.info ("Report p50/p99/max per line: " + printLatencies (metrics.getReportTimeP50(), metrics.getReportTimeP99(), metrics.getReportTimeMax()));
+	}
+
+	// Print latencies in ms
+	private static String printLatencies (final double p50, final double p99, final double max) {
+		return String.format("%.3f / %.3f / %.3f ms", p50, p99, max);
 	}
 
 	// Print execution parameters
@@ -299,67 +528,33 @@ public class Application {
 		stringBuilder.append("currency pairs|"+currencyPairs.toString()+"\n");
 		stringBuilder.append("start date|"+startDate+"\n");
 		stringBuilder.append("end date|"+endDate+"\n");
-		stringBuilder.append("increase percentage|"+increasePercentage+"\n");
-		stringBuilder.append("decrease percentage|"+decreasePercentage+"\n");
-		stringBuilder.append("max. levels|"+maxLevels+"\n");
+		stringBuilder.append("increase percentage|"+printList(increasePercentages)+"\n");
+		stringBuilder.append("decrease percentage|"+printList(decreasePercentages)+"\n");
+		stringBuilder.append("max. levels|"+printList(maxLevels)+"\n");
+		stringBuilder.append("max. horizon|"+maxHorizon+" "+maxHorizonUnit+"\n");
+
+		return (stringBuilder.toString());
+	}
+
+	// Totals of the run (written after the results)
+	private static String printExecutionTotals() {
+		StringBuilder stringBuilder =  new StringBuilder();
 		stringBuilder.append("Results"+"\n");
 		stringBuilder.append("total executions|"+String.format("%,d", totalExecutions)+"\n");
 		stringBuilder.append("avg. execution time|"+GeneralUtils.printElapsedTime (avgExecutionTime)+"\n");
 		stringBuilder.append("total historical data|"+String.format("%,d", totalHistDataLoaded)+"\n");
 		stringBuilder.append("total calculations|"+String.format("%,d", totalCalculations)+"\n"); 
 		stringBuilder.append("total results|"+String.format("%,d", totalResults)+"\n");
+		if (ExecutionMetrics.getInstance().getCachedCombinations() > 0) {
+			stringBuilder.append("cached results|"+String.format("%,d", ExecutionMetrics.getInstance().getCachedResults())+"|"+String.format("%,d", ExecutionMetrics.getInstance().getCachedCombinations())+" combinations\n");
+		}
 		stringBuilder.append("elapsed time|"+GeneralUtils.printElapsedTime (applicationStartTime,applicationStopTime)+"\n");
 
 		return (stringBuilder.toString());
 	}
 
-	// Print currency levels header
-	private static String printCurrencyLevelsHeader(final int maxLevels) {
-		StringBuilder stringBuilder =  new StringBuilder();
-		stringBuilder.append("CURRENCYPAIR");
-		
-		for (int i=1; i <= maxLevels; i++) {
-			stringBuilder.append("|"+i+"-UP|"+i+"-DOWN|"+i+"-TOTAL|"+i+"-%");
-		}
-		
-		return (stringBuilder.toString());
-	}
-	
-	// Print currency result levels
-	private static String printCurrencyLevels (final String currency, final Map<String,Integer> levelsMap, final int maxLevels) {
-		
-		StringBuilder stringBuilder = new StringBuilder();
-		
-		double referenceLevel = 0;
-		
-		for (int i=1; i <= maxLevels; i++) {
-			long total=0;
-			if (levelsMap != null && levelsMap.containsKey("UP-"+i)) {
-				stringBuilder.append(levelsMap.get("UP-"+i));
-				total += levelsMap.get("UP-"+i);
-			} else {
-				stringBuilder.append("0");
-			}
-			stringBuilder.append("|");
-			if (levelsMap != null && levelsMap.containsKey("DOWN-"+i)) {
-				stringBuilder.append(levelsMap.get("DOWN-"+i));
-				total += levelsMap.get("DOWN-"+i);
-			} else {
-				stringBuilder.append("0");
-			}
-			stringBuilder.append("|");
-			stringBuilder.append(total);
-			stringBuilder.append("|");
-			if (i==1) referenceLevel = total;
-
-			if (total == 0) {
-				stringBuilder.append("0");
-			} else {
-				stringBuilder.append(new DecimalFormat("#.##").format(total*100/referenceLevel));
-			}
-			stringBuilder.append("|");
-		}
-		
-		return (currency + "|" + stringBuilder.toString());
+	// Print a single value without brackets, as before the parameter sweep
+	private static String printList(final List<?> values) {
+		return (values.size() == 1) ? String.valueOf(values.get(0)) : values.toString();
 	}
 }
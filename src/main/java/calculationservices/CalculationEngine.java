@@ -0,0 +1,26 @@
+package calculationservices;
+
+import datamodel.CalcParameters;
+import utils.ChainEventLog;
+
+/**
+ * Level calculations over the historical data of a currency pair.
+ * Engines are created for a given FxSeries and are thread-safe, so several ranges of starting positions
+ * can be calculated in parallel over the same series.
+ */
+public interface CalculationEngine {
+
+	/**
+	 * Executes the level calculations for the starting positions in [fromPosition, toPosition).
+	 * Every level reached is accumulated into upHits / downHits, indexed by level (position 0 is not used).
+	 *
+	 * @param fromPosition first starting position (included)
+	 * @param toPosition last starting position (excluded)
+	 * @param params calculation parameters (increase, decrease, max. levels and max. horizon)
+	 * @param upHits up level hits, with at least maxLevels + 1 positions
+	 * @param downHits down level hits, with at least maxLevels + 1 positions
+	 * @param events log receiving one event per starting position (null: no events)
+	 * @return total number of calculations performed
+	 */
+	public long executeCalculations (final int fromPosition, final int toPosition, final CalcParameters params, final long[] upHits, final long[] downHits, final ChainEventLog events);
+}
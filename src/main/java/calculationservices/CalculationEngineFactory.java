@@ -0,0 +1,41 @@
+package calculationservices;
+
+import java.util.concurrent.ForkJoinPool;
+
+import datamodel.FxSeries;
+
+public class CalculationEngineFactory {
+
+	// Fork/join pool shared by all the workers calculating a single pair in parallel
+	private static ForkJoinPool forkJoinPool;
+
+	/**
+	 * Returns the calculation engine for the given series.
+	 *
+	 * @param engineName [loop | indexed]. Defaults to loop
+	 * @param series historical data to be calculated
+	 * @param parallelism threads calculating the series (1 = sequential, 0 = available processors)
+	 */
+	public static CalculationEngine getEngine (final String engineName, final FxSeries series, final int parallelism) {
+
+		CalculationEngine engine = null;
+
+		if ("indexed".equals(engineName)) {
+			engine = new IndexedCalculationEngine(series);
+		} else {
+			engine = new LoopCalculationEngine(series);
+		}
+
+		if (parallelism != 1) {
+			engine = new ParallelCalculationEngine(engine, getForkJoinPool(parallelism));
+		}
+		return engine;
+	}
+
+	private static synchronized ForkJoinPool getForkJoinPool (final int parallelism) {
+		if (forkJoinPool == null) {
+			forkJoinPool = new ForkJoinPool((parallelism > 0) ? parallelism : Runtime.getRuntime().availableProcessors());
+		}
+		return forkJoinPool;
+	}
+}
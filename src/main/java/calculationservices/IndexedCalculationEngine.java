@@ -0,0 +1,123 @@
+package calculationservices;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datamodel.CalcParameters;
+import datamodel.FxSeries;
+import utils.ChainEventLog;
+import utils.ChainEventWriter;
+
+/**
+ * Level-crossing calculation engine.
+ * Produces the same level counts as LoopCalculationEngine, but instead of comparing every later rate it uses
+ * a RangeExtremaIndex to jump straight to the next rate crossing the current up or down level: O(n * levels * log n)
+ * The searches are limited to the max. horizon of every starting rate, when bounded.
+ * Total calculations are the number of level searches performed.
+ * Every chain can be written as an event (see ChainEventLog), with the same values as LoopCalculationEngine.
+ */
+public class IndexedCalculationEngine implements CalculationEngine {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(IndexedCalculationEngine.class);
+
+	private static final int NONE = 0;
+	private static final int UP = 1;
+	private static final int DOWN = 2;
+
+	private final FxSeries series;
+	private final RangeExtremaIndex index;
+
+	public IndexedCalculationEngine (final FxSeries series) {
+		this.series = series;
+		this.index = new RangeExtremaIndex(series.getHigh(), series.getLow(), series.size());
+		logger.debug ("Range index built for " + series.getCurrencyPair() + " (" + series.size() + " positions)");
+	}
+
+	@Override
+	public long executeCalculations (final int fromPosition, final int toPosition, final CalcParameters params, final long[] upHits, final long[] downHits, final ChainEventLog events) {
+
+		long totalCalculations = 0;
+
+		float increase = params.getIncrease();
+		float decrease = params.getDecrease();
+		int maxLevels = params.getMaxLevels();
+
+		if (maxLevels < 1) {
+			return totalCalculations;
+		}
+
+		float[] open = series.getOpen();
+		ScanHorizon horizon = new ScanHorizon(series, params);
+
+		ChainEventWriter eventWriter = (events != null) ? events.newWriter(toPosition - fromPosition) : null;
+		int[] timestamps = series.getTimestamps();
+		int[] levelPositions = new int[maxLevels];
+
+		for (int positionId=fromPosition; positionId<toPosition; positionId++) {
+
+			float opening = open[positionId];
+			int previousFound = NONE;
+			int levels = 0;
+			int i = positionId + 1;
+			int end = horizon.getEnd(positionId);
+			// Position of the opposite crossing ending the chain (-1: not reversed)
+			int reversalPosition = -1;
+
+			while (i < end) {
+				float upLevel = opening * increase;
+				float downLevel = opening * decrease;
+
+				// On the same position, a high crossing takes precedence over a low crossing
+				int nextUp = index.nextHighAbove(i, end, upLevel);
+				int nextDown = index.nextLowBelow(i, nextUp, downLevel);
+				totalCalculations++;
+
+				if (nextDown < nextUp) {
+					if (previousFound == UP) {
+						reversalPosition = nextDown;
+						break;
+					}
+					levels++;
+					downHits[levels]++;
+					if (eventWriter != null) levelPositions[levels-1] = nextDown;
+					previousFound = DOWN;
+					opening = downLevel;
+					i = nextDown + 1;
+				} else if (nextUp < end) {
+					if (previousFound == DOWN) {
+						reversalPosition = nextUp;
+						break;
+					}
+					levels++;
+					upHits[levels]++;
+					if (eventWriter != null) levelPositions[levels-1] = nextUp;
+					previousFound = UP;
+					opening = upLevel;
+					i = nextUp + 1;
+				} else {
+					break;
+				}
+
+				// No further level can be counted once maxLevels is reached in the current direction
+				if (levels >= maxLevels) break;
+			}
+
+			if (eventWriter != null) {
+				byte direction = (previousFound == UP) ? ChainEventLog.UP : ((previousFound == DOWN) ? ChainEventLog.DOWN : ChainEventLog.NONE);
+				if (levels >= maxLevels) {
+					eventWriter.write(positionId, timestamps[positionId], direction, levels, ChainEventLog.MAX_LEVELS, levelPositions[levels-1], levelPositions);
+				} else if (reversalPosition >= 0) {
+					eventWriter.write(positionId, timestamps[positionId], direction, levels, ChainEventLog.REVERSAL, reversalPosition, levelPositions);
+				} else {
+					eventWriter.write(positionId, timestamps[positionId], direction, levels, (end < series.size()) ? ChainEventLog.HORIZON : ChainEventLog.END_OF_DATA, Math.max(positionId, end - 1), levelPositions);
+				}
+			}
+		}
+
+		if (eventWriter != null) {
+			eventWriter.close();
+		}
+		return totalCalculations;
+	}
+}
@@ -0,0 +1,116 @@
+package calculationservices;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datamodel.CalcParameters;
+import datamodel.FxSeries;
+import utils.ChainEventLog;
+import utils.ChainEventWriter;
+
+/**
+ * Original calculation engine.
+ * For every starting rate, scans every later rate until the end of the series or the max. horizon: O(n^2) or O(n * horizon)
+ * The scan stops as soon as no further level can be counted.
+ * Every chain can be written as an event (see ChainEventLog): levels are hit in scan order, so recording them only
+ * adds a store per level and a record per starting position.
+ */
+public class LoopCalculationEngine implements CalculationEngine {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(LoopCalculationEngine.class);
+
+	private final FxSeries series;
+
+	public LoopCalculationEngine (final FxSeries series) {
+		this.series = series;
+	}
+
+	@Override
+	public long executeCalculations (final int fromPosition, final int toPosition, final CalcParameters params, final long[] upHits, final long[] downHits, final ChainEventLog events) {
+
+		long totalCalculations = 0;
+
+		float increase = params.getIncrease();
+		float decrease = params.getDecrease();
+		int maxLevels = params.getMaxLevels();
+		ScanHorizon horizon = new ScanHorizon(series, params);
+
+		float[] open = series.getOpen();
+		float[] high = series.getHigh();
+		float[] low = series.getLow();
+
+		ChainEventWriter eventWriter = (events != null) ? events.newWriter(toPosition - fromPosition) : null;
+		int[] timestamps = series.getTimestamps();
+		int[] levelPositions = new int[Math.max(0, maxLevels)];
+
+		for (int positionId=fromPosition; positionId<toPosition; positionId++) {
+
+			float opening = open[positionId];
+
+			if (logger.isDebugEnabled()) {
+				logger.debug ("Processing " + series.getCurrencyPair() + "-" + positionId);
+			}
+
+			String previousFound = "";
+
+			int indexUp = 1;
+			int indexDown = 1;
+			int end = horizon.getEnd(positionId);
+			// Position of the opposite crossing ending the chain (-1: not reversed)
+			int reversalPosition = -1;
+
+			for (int i=positionId+1; i<end; i++) {
+
+				// No further level can be counted once maxLevels is reached in the current direction
+				if ((indexUp > maxLevels) || (indexDown > maxLevels)) {
+					break;
+				}
+
+				if ((high[i] > (opening * increase)) && (indexUp <= maxLevels)) {
+					if (("DOWN").equals(previousFound)) {
+						reversalPosition = i;
+						break;
+					}
+
+					upHits[indexUp]++;
+					if (eventWriter != null) levelPositions[indexUp-1] = i;
+
+					previousFound = "UP";
+					opening = opening * increase;
+					indexUp++;
+				} else if ((low[i] < (opening * decrease)) && (indexDown <= maxLevels)) {
+					if (("UP").equals(previousFound)) {
+						reversalPosition = i;
+						break;
+					}
+
+					downHits[indexDown]++;
+					if (eventWriter != null) levelPositions[indexDown-1] = i;
+
+					previousFound = "DOWN";
+					opening = opening * decrease;
+					indexDown++;
+				}
+				totalCalculations++;
+			}
+
+			if (eventWriter != null) {
+				int levels = Math.max(indexUp, indexDown) - 1;
+				byte direction = ("UP").equals(previousFound) ? ChainEventLog.UP : (("DOWN").equals(previousFound) ? ChainEventLog.DOWN : ChainEventLog.NONE);
+				if (levels >= maxLevels && levels > 0) {
+					eventWriter.write(positionId, timestamps[positionId], direction, levels, ChainEventLog.MAX_LEVELS, levelPositions[levels-1], levelPositions);
+				} else if (reversalPosition >= 0) {
+					eventWriter.write(positionId, timestamps[positionId], direction, levels, ChainEventLog.REVERSAL, reversalPosition, levelPositions);
+				} else {
+					eventWriter.write(positionId, timestamps[positionId], direction, levels, (end < series.size()) ? ChainEventLog.HORIZON : ChainEventLog.END_OF_DATA, Math.max(positionId, end - 1), levelPositions);
+				}
+			}
+		}
+
+		if (eventWriter != null) {
+			eventWriter.close();
+		}
+		return totalCalculations;
+	}
+}
@@ -0,0 +1,93 @@
+package calculationservices;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import datamodel.CalcParameters;
+import utils.ChainEventLog;
+
+/**
+ * Splits the starting positions of a single currency pair into fork/join tasks executed by another engine.
+ * Every task accumulates its own level counters, which are merged once the tasks are joined.
+ * As the counters are plain sums, the result is deterministic and identical to the sequential execution.
+ */
+public class ParallelCalculationEngine implements CalculationEngine {
+
+	// Min. number of starting positions per task
+	private static final int MIN_TASK_SIZE = 256;
+	// Tasks per thread, so threads finishing early can steal the remaining ones
+	private static final int TASKS_PER_THREAD = 8;
+
+	private final CalculationEngine engine;
+	private final ForkJoinPool pool;
+
+	public ParallelCalculationEngine (final CalculationEngine engine, final ForkJoinPool pool) {
+		this.engine = engine;
+		this.pool = pool;
+	}
+
+	@Override
+	public long executeCalculations (final int fromPosition, final int toPosition, final CalcParameters params, final long[] upHits, final long[] downHits, final ChainEventLog events) {
+
+		int taskSize = Math.max(MIN_TASK_SIZE, (toPosition - fromPosition) / (pool.getParallelism() * TASKS_PER_THREAD));
+
+		CalculationTask task = new CalculationTask(fromPosition, toPosition, taskSize, params, events);
+		long totalCalculations = pool.invoke(task);
+		mergeResults(upHits, task.upHits);
+		mergeResults(downHits, task.downHits);
+
+		return totalCalculations;
+	}
+
+	private static void mergeResults (final long[] hits, final long[] partialHits) {
+		for (int level=0; level<partialHits.length; level++) {
+			hits[level] += partialHits[level];
+		}
+	}
+
+	private class CalculationTask extends RecursiveTask<Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int fromPosition;
+		private final int toPosition;
+		private final int taskSize;
+		private final CalcParameters params;
+		private final long[] upHits;
+		private final long[] downHits;
+		private final ChainEventLog events;
+
+		CalculationTask (final int fromPosition, final int toPosition, final int taskSize, final CalcParameters params, final ChainEventLog events) {
+			this.fromPosition = fromPosition;
+			this.toPosition = toPosition;
+			this.taskSize = taskSize;
+			this.params = params;
+			this.events = events;
+			this.upHits = new long[params.getMaxLevels()+1];
+			this.downHits = new long[params.getMaxLevels()+1];
+		}
+
+		@Override
+		protected Long compute () {
+
+			if (toPosition - fromPosition <= taskSize) {
+				return engine.executeCalculations(fromPosition, toPosition, params, upHits, downHits, events);
+			}
+
+			int middlePosition = (fromPosition + toPosition) >>> 1;
+			CalculationTask left = new CalculationTask(fromPosition, middlePosition, taskSize, params, events);
+			CalculationTask right = new CalculationTask(middlePosition, toPosition, taskSize, params, events);
+
+			left.fork();
+			long totalCalculations = right.compute();
+			totalCalculations += left.join();
+
+			mergeResults(upHits, left.upHits);
+			mergeResults(upHits, right.upHits);
+			mergeResults(downHits, left.downHits);
+			mergeResults(downHits, right.downHits);
+
+			return totalCalculations;
+		}
+	}
+}
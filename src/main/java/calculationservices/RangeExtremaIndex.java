@@ -0,0 +1,115 @@
+package calculationservices;
+
+import java.util.Arrays;
+
+/**
+ * Range max (high) / range min (low) index over a price series.
+ * Prices are grouped in blocks of BLOCK_SIZE positions. A segment tree over the block max/min values allows
+ * finding the next position crossing a given level in O(BLOCK_SIZE + log n), without scanning every position.
+ * The index is read-only once built, so it can be shared between threads.
+ */
+public class RangeExtremaIndex {
+
+	private static final int BLOCK_SHIFT = 5;
+	private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+	private final float[] high;
+	private final float[] low;
+	private final int leaves;
+	private final float[] maxTree;
+	private final float[] minTree;
+
+	public RangeExtremaIndex (final float[] high, final float[] low, final int length) {
+		this.high = high;
+		this.low = low;
+
+		int blocks = Math.max(1, (length + BLOCK_SIZE - 1) >> BLOCK_SHIFT);
+		int leaves = 1;
+		while (leaves < blocks) {
+			leaves <<= 1;
+		}
+		this.leaves = leaves;
+
+		// Unused leaves never cross any level
+		maxTree = new float[2 * leaves];
+		minTree = new float[2 * leaves];
+		Arrays.fill(maxTree, Float.NEGATIVE_INFINITY);
+		Arrays.fill(minTree, Float.POSITIVE_INFINITY);
+
+		for (int i=0; i<length; i++) {
+			int leaf = leaves + (i >> BLOCK_SHIFT);
+			if (high[i] > maxTree[leaf]) maxTree[leaf] = high[i];
+			if (low[i] < minTree[leaf]) minTree[leaf] = low[i];
+		}
+		for (int node=leaves-1; node>0; node--) {
+			maxTree[node] = Math.max(maxTree[2*node], maxTree[2*node+1]);
+			minTree[node] = Math.min(minTree[2*node], minTree[2*node+1]);
+		}
+	}
+
+	// Returns the first position in [from, to) with high > level, or "to" if there is none
+	public final int nextHighAbove (final int from, final int to, final float level) {
+
+		if (from >= to) return to;
+
+		// Rest of the current block
+		int blockEnd = Math.min(to, ((from >> BLOCK_SHIFT) + 1) << BLOCK_SHIFT);
+		for (int i=from; i<blockEnd; i++) {
+			if (high[i] > level) return i;
+		}
+		if (blockEnd >= to) return to;
+
+		// First following block with max > level
+		int node = leaves + (blockEnd >> BLOCK_SHIFT);
+		while (!(maxTree[node] > level)) {
+			while ((node & 1) == 1) {
+				node >>= 1;
+			}
+			if (node == 0) return to;
+			node++;
+		}
+		while (node < leaves) {
+			node <<= 1;
+			if (!(maxTree[node] > level)) node++;
+		}
+
+		int blockStart = (node - leaves) << BLOCK_SHIFT;
+		for (int i=blockStart; i<Math.min(to, blockStart + BLOCK_SIZE); i++) {
+			if (high[i] > level) return i;
+		}
+		return to;
+	}
+
+	// Returns the first position in [from, to) with low < level, or "to" if there is none
+	public final int nextLowBelow (final int from, final int to, final float level) {
+
+		if (from >= to) return to;
+
+		// Rest of the current block
+		int blockEnd = Math.min(to, ((from >> BLOCK_SHIFT) + 1) << BLOCK_SHIFT);
+		for (int i=from; i<blockEnd; i++) {
+			if (low[i] < level) return i;
+		}
+		if (blockEnd >= to) return to;
+
+		// First following block with min < level
+		int node = leaves + (blockEnd >> BLOCK_SHIFT);
+		while (!(minTree[node] < level)) {
+			while ((node & 1) == 1) {
+				node >>= 1;
+			}
+			if (node == 0) return to;
+			node++;
+		}
+		while (node < leaves) {
+			node <<= 1;
+			if (!(minTree[node] < level)) node++;
+		}
+
+		int blockStart = (node - leaves) << BLOCK_SHIFT;
+		for (int i=blockStart; i<Math.min(to, blockStart + BLOCK_SIZE); i++) {
+			if (low[i] < level) return i;
+		}
+		return to;
+	}
+}
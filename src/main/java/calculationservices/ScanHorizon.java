@@ -0,0 +1,41 @@
+package calculationservices;
+
+import datamodel.CalcParameters;
+import datamodel.FxSeries;
+
+/**
+ * Scan window of every starting position.
+ * getEnd returns the exclusive end position to be compared against, limited by the max. horizon (bars or minutes).
+ * Positions must be requested in increasing order.
+ */
+class ScanHorizon {
+
+	private final int size;
+	private final int maxHorizon;
+	private final int[] timestamps;
+	private int end;
+
+	ScanHorizon (final FxSeries series, final CalcParameters params) {
+		this.size = series.size();
+		this.maxHorizon = params.getMaxHorizon();
+		this.timestamps = (params.isHorizonBounded() && params.isHorizonInMinutes()) ? series.getTimestamps() : null;
+	}
+
+	int getEnd (final int positionId) {
+
+		if (maxHorizon <= 0) {
+			return size;
+		}
+		if (timestamps == null) {
+			return (int) Math.min(size, (long) positionId + maxHorizon + 1);
+		}
+
+		// Positions are ordered in time, so the end of the window only moves forward
+		long limit = (long) timestamps[positionId] + maxHorizon;
+		if (end <= positionId) end = positionId + 1;
+		while (end < size && timestamps[end] <= limit) {
+			end++;
+		}
+		return end;
+	}
+}
@@ -0,0 +1,428 @@
+package calculationservices;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import datamodel.CalcParameters;
+import datamodel.FxRateConsumer;
+
+/**
+ * Streaming calculation engine.
+ * Consumes the rates one at a time, in time order, from any source (file, binary cache or database) without keeping
+ * the series: every rate opens a chain (the up and down levels to be reached next, the direction and the levels
+ * counted so far) that is updated by the later rates crossing its levels, and retired once it breaks, reaches
+ * max. levels or runs out of horizon. Level hits are counted as they happen.
+ * Open chains are kept in two heaps by their next level (lowest up level / highest down level first), so every
+ * rate only visits the chains it crosses. Memory is proportional to the number of open chains, not to the length
+ * of the history.
+ * Produces the same level counts as the batch engines. Total calculations are the number of level crossings.
+ * The counters and the open chains can be saved and restored, so a calculation can be resumed with the rates
+ * appended later to the history.
+ */
+public class StreamingCalculationEngine implements FxRateConsumer {
+
+	private static final int NONE = 0;
+	private static final int UP = 1;
+	private static final int DOWN = 2;
+	private static final int INITIAL_CHAINS = 1024;
+
+	private final float increase;
+	private final float decrease;
+	private final int maxLevels;
+	private final int maxHorizon;
+	private final boolean horizonInMinutes;
+
+	private final long[] upHits;
+	private final long[] downHits;
+	private long totalCalculations;
+	private long positionId = -1;
+
+	// Open chains, by slot
+	private float[] upLevels = new float[INITIAL_CHAINS];
+	private float[] downLevels = new float[INITIAL_CHAINS];
+	private int[] directions = new int[INITIAL_CHAINS];
+	private int[] levels = new int[INITIAL_CHAINS];
+	private long[] startPositions = new long[INITIAL_CHAINS];
+	private int[] freeSlots = new int[INITIAL_CHAINS];
+	private int totalFreeSlots;
+	private int totalSlots;
+	private int openChains;
+	private int maxOpenChains;
+
+	// Chains waiting for a rate above their up level (min-heap) or below their down level (min-heap of the negated level)
+	private final LevelHeap upHeap = new LevelHeap(INITIAL_CHAINS);
+	private final LevelHeap downHeap = new LevelHeap(INITIAL_CHAINS);
+
+	// Chains crossed by the current rate, to be pushed back into the heaps once every crossing has been processed
+	private int[] crossedSlots = new int[INITIAL_CHAINS];
+
+	// Chains in creation order with the end of their horizon (non-decreasing), when bounded
+	private int[] horizonSlots = new int[INITIAL_CHAINS];
+	private long[] horizonStarts = new long[INITIAL_CHAINS];
+	private long[] horizonEnds = new long[INITIAL_CHAINS];
+	private int horizonHead;
+	private int horizonSize;
+
+	public StreamingCalculationEngine (final CalcParameters params) {
+		this.increase = params.getIncrease();
+		this.decrease = params.getDecrease();
+		this.maxLevels = params.getMaxLevels();
+		this.maxHorizon = params.isHorizonBounded() ? params.getMaxHorizon() : 0;
+		this.horizonInMinutes = params.isHorizonInMinutes();
+		this.upHits = new long[Math.max(0, maxLevels)+1];
+		this.downHits = new long[Math.max(0, maxLevels)+1];
+	}
+
+	@Override
+	public void add (final int timestamp, final float open, final float high, final float low, final float close) {
+
+		positionId++;
+
+		// Chains whose horizon does not reach this rate
+		if (maxHorizon > 0) {
+			long current = horizonInMinutes ? timestamp : positionId;
+			while (horizonSize > 0 && horizonEnds[horizonHead] < current) {
+				int slot = horizonSlots[horizonHead];
+				if (startPositions[slot] == horizonStarts[horizonHead]) {
+					retire(slot);
+				}
+				horizonHead = (horizonHead + 1) % horizonSlots.length;
+				horizonSize--;
+			}
+		}
+
+		int totalCrossed = 0;
+
+		// On the same rate, a high crossing takes precedence over a low crossing
+		while (upHeap.size() > 0 && high > upHeap.peekLevel()) {
+			int slot = upHeap.pop();
+			downHeap.remove(slot);
+			totalCalculations++;
+
+			if (directions[slot] == DOWN) {
+				retire(slot);
+			} else {
+				upHits[++levels[slot]]++;
+				directions[slot] = UP;
+				if (levels[slot] >= maxLevels) {
+					retire(slot);
+				} else {
+					float opening = upLevels[slot];
+					upLevels[slot] = opening * increase;
+					downLevels[slot] = opening * decrease;
+					totalCrossed = addCrossed(slot, totalCrossed);
+				}
+			}
+		}
+
+		while (downHeap.size() > 0 && -low > downHeap.peekLevel()) {
+			int slot = downHeap.pop();
+			upHeap.remove(slot);
+			totalCalculations++;
+
+			if (directions[slot] == UP) {
+				retire(slot);
+			} else {
+				downHits[++levels[slot]]++;
+				directions[slot] = DOWN;
+				if (levels[slot] >= maxLevels) {
+					retire(slot);
+				} else {
+					float opening = downLevels[slot];
+					upLevels[slot] = opening * increase;
+					downLevels[slot] = opening * decrease;
+					totalCrossed = addCrossed(slot, totalCrossed);
+				}
+			}
+		}
+
+		// Next levels are only compared against the following rates
+		for (int i=0; i<totalCrossed; i++) {
+			int slot = crossedSlots[i];
+			upHeap.push(slot, upLevels[slot]);
+			downHeap.push(slot, -downLevels[slot]);
+		}
+
+		// New chain starting at this rate
+		if (maxLevels > 0) {
+			int slot = open(open);
+			if (maxHorizon > 0) {
+				addHorizon(slot, positionId, (horizonInMinutes ? (long) timestamp : positionId) + maxHorizon);
+			}
+		}
+	}
+
+	// Writes the counters and the open chains (in creation order, with the end of their horizon) to be resumed by readState
+	public final void writeState (final DataOutput output) throws IOException {
+
+		output.writeLong(positionId);
+		output.writeLong(totalCalculations);
+		output.writeInt(upHits.length);
+		for (int level=0; level<upHits.length; level++) {
+			output.writeLong(upHits[level]);
+			output.writeLong(downHits[level]);
+		}
+
+		output.writeInt(openChains);
+		if (maxHorizon > 0) {
+			// Every open chain is in the horizon queue
+			for (int i=0; i<horizonSize; i++) {
+				int j = (horizonHead + i) % horizonSlots.length;
+				if (startPositions[horizonSlots[j]] == horizonStarts[j]) {
+					writeChain(output, horizonSlots[j], horizonEnds[j]);
+				}
+			}
+		} else {
+			for (int slot=0; slot<totalSlots; slot++) {
+				if (startPositions[slot] >= 0) {
+					writeChain(output, slot, 0);
+				}
+			}
+		}
+	}
+
+	// Engine resuming the calculation saved by writeState, with the same parameters
+	public static StreamingCalculationEngine readState (final CalcParameters params, final DataInput input) throws IOException {
+
+		StreamingCalculationEngine engine = new StreamingCalculationEngine(params);
+
+		engine.positionId = input.readLong();
+		engine.totalCalculations = input.readLong();
+		if (input.readInt() != engine.upHits.length) {
+			throw new IOException("State saved with a different max. levels");
+		}
+		for (int level=0; level<engine.upHits.length; level++) {
+			engine.upHits[level] = input.readLong();
+			engine.downHits[level] = input.readLong();
+		}
+
+		int openChains = input.readInt();
+		for (int i=0; i<openChains; i++) {
+			long startPosition = input.readLong();
+			float upLevel = input.readFloat();
+			float downLevel = input.readFloat();
+			int direction = input.readInt();
+			int levels = input.readInt();
+			long horizonEnd = input.readLong();
+
+			int slot = engine.allocate();
+			engine.upLevels[slot] = upLevel;
+			engine.downLevels[slot] = downLevel;
+			engine.directions[slot] = direction;
+			engine.levels[slot] = levels;
+			engine.startPositions[slot] = startPosition;
+			engine.upHeap.push(slot, upLevel);
+			engine.downHeap.push(slot, -downLevel);
+			if (engine.maxHorizon > 0) {
+				engine.addHorizon(slot, startPosition, horizonEnd);
+			}
+		}
+		engine.openChains = openChains;
+		engine.maxOpenChains = openChains;
+
+		return engine;
+	}
+
+	private void writeChain (final DataOutput output, final int slot, final long horizonEnd) throws IOException {
+		output.writeLong(startPositions[slot]);
+		output.writeFloat(upLevels[slot]);
+		output.writeFloat(downLevels[slot]);
+		output.writeInt(directions[slot]);
+		output.writeInt(levels[slot]);
+		output.writeLong(horizonEnd);
+	}
+
+	public final long[] getUpHits() { return upHits; }
+	public final long[] getDownHits() { return downHits; }
+	public final long getTotalCalculations() { return totalCalculations; }
+	public final long getTotalRates() { return positionId + 1; }
+	public final int getOpenChains() { return openChains; }
+	public final int getMaxOpenChains() { return maxOpenChains; }
+
+	private int allocate () {
+		if (totalFreeSlots > 0) {
+			return freeSlots[--totalFreeSlots];
+		}
+		if (totalSlots == upLevels.length) {
+			growSlots(totalSlots * 2);
+		}
+		return totalSlots++;
+	}
+
+	private int open (final float opening) {
+
+		int slot = allocate();
+
+		upLevels[slot] = opening * increase;
+		downLevels[slot] = opening * decrease;
+		directions[slot] = NONE;
+		levels[slot] = 0;
+		startPositions[slot] = positionId;
+
+		upHeap.push(slot, upLevels[slot]);
+		downHeap.push(slot, -downLevels[slot]);
+
+		openChains++;
+		if (openChains > maxOpenChains) maxOpenChains = openChains;
+
+		return slot;
+	}
+
+	// Removes the chain from the heaps (if still there) and releases its slot
+	private void retire (final int slot) {
+		upHeap.remove(slot);
+		downHeap.remove(slot);
+		startPositions[slot] = -1;
+		freeSlots[totalFreeSlots++] = slot;
+		openChains--;
+	}
+
+	private int addCrossed (final int slot, final int totalCrossed) {
+		if (totalCrossed == crossedSlots.length) {
+			crossedSlots = Arrays.copyOf(crossedSlots, totalCrossed * 2);
+		}
+		crossedSlots[totalCrossed] = slot;
+		return totalCrossed + 1;
+	}
+
+	private void addHorizon (final int slot, final long startPosition, final long horizonEnd) {
+		if (horizonSize == horizonSlots.length) {
+			// Unrolls the circular queue into larger arrays
+			int capacity = horizonSize * 2;
+			int[] slots = new int[capacity];
+			long[] starts = new long[capacity];
+			long[] ends = new long[capacity];
+			for (int i=0; i<horizonSize; i++) {
+				int j = (horizonHead + i) % horizonSlots.length;
+				slots[i] = horizonSlots[j];
+				starts[i] = horizonStarts[j];
+				ends[i] = horizonEnds[j];
+			}
+			horizonSlots = slots;
+			horizonStarts = starts;
+			horizonEnds = ends;
+			horizonHead = 0;
+		}
+		int tail = (horizonHead + horizonSize) % horizonSlots.length;
+		horizonSlots[tail] = slot;
+		horizonStarts[tail] = startPosition;
+		horizonEnds[tail] = horizonEnd;
+		horizonSize++;
+	}
+
+	private void growSlots (final int capacity) {
+		upLevels = Arrays.copyOf(upLevels, capacity);
+		downLevels = Arrays.copyOf(downLevels, capacity);
+		directions = Arrays.copyOf(directions, capacity);
+		levels = Arrays.copyOf(levels, capacity);
+		startPositions = Arrays.copyOf(startPositions, capacity);
+		freeSlots = Arrays.copyOf(freeSlots, capacity);
+		upHeap.ensureCapacity(capacity);
+		downHeap.ensureCapacity(capacity);
+	}
+
+	/**
+	 * Binary min-heap of chain slots by level, supporting the removal of any slot.
+	 */
+	private static class LevelHeap {
+
+		private float[] heapLevels;
+		private int[] heapSlots;
+		// Position of every slot in the heap (-1 when not in the heap)
+		private int[] positions;
+		private int size;
+
+		LevelHeap (final int capacity) {
+			heapLevels = new float[capacity];
+			heapSlots = new int[capacity];
+			positions = new int[capacity];
+			Arrays.fill(positions, -1);
+		}
+
+		int size () {
+			return size;
+		}
+
+		float peekLevel () {
+			return heapLevels[0];
+		}
+
+		void ensureCapacity (final int capacity) {
+			if (capacity > positions.length) {
+				int previousCapacity = positions.length;
+				heapLevels = Arrays.copyOf(heapLevels, capacity);
+				heapSlots = Arrays.copyOf(heapSlots, capacity);
+				positions = Arrays.copyOf(positions, capacity);
+				Arrays.fill(positions, previousCapacity, capacity, -1);
+			}
+		}
+
+		void push (final int slot, final float level) {
+			heapLevels[size] = level;
+			heapSlots[size] = slot;
+			positions[slot] = size;
+			size++;
+			siftUp(size - 1);
+		}
+
+		int pop () {
+			int slot = heapSlots[0];
+			removeAt(0);
+			return slot;
+		}
+
+		void remove (final int slot) {
+			int position = positions[slot];
+			if (position >= 0) {
+				removeAt(position);
+			}
+		}
+
+		private void removeAt (final int position) {
+			positions[heapSlots[position]] = -1;
+			size--;
+			if (position < size) {
+				move(size, position);
+				siftDown(position);
+				siftUp(position);
+			}
+		}
+
+		private void siftUp (int position) {
+			while (position > 0) {
+				int parent = (position - 1) >>> 1;
+				if (heapLevels[parent] <= heapLevels[position]) break;
+				swap(parent, position);
+				position = parent;
+			}
+		}
+
+		private void siftDown (int position) {
+			while (true) {
+				int child = (2 * position) + 1;
+				if (child >= size) break;
+				if (child + 1 < size && heapLevels[child + 1] < heapLevels[child]) child++;
+				if (heapLevels[position] <= heapLevels[child]) break;
+				swap(position, child);
+				position = child;
+			}
+		}
+
+		private void move (final int from, final int to) {
+			heapLevels[to] = heapLevels[from];
+			heapSlots[to] = heapSlots[from];
+			positions[heapSlots[to]] = to;
+		}
+
+		private void swap (final int i, final int j) {
+			float level = heapLevels[i];
+			int slot = heapSlots[i];
+			move(j, i);
+			heapLevels[j] = level;
+			heapSlots[j] = slot;
+			positions[slot] = j;
+		}
+	}
+}
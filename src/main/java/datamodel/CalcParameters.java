@@ -0,0 +1,73 @@
+package datamodel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CalcParameters {
+
+	public static final String HORIZON_BARS = "bars";
+	public static final String HORIZON_MINUTES = "minutes";
+
+	private float increasePercentage;
+	private float decreasePercentage;
+	private float increase;
+	private float decrease;
+	private int maxLevels;
+	private int maxHorizon;
+	private String maxHorizonUnit;
+
+	/**
+	 * @param increasePercentage increase percentage (i.e. 1 for 1%)
+	 * @param decreasePercentage decrease percentage (i.e. 1 for 1%)
+	 * @param maxLevels max. number of levels to be counted per direction
+	 * @param maxHorizon max. distance from the starting position to be scanned (0 = unbounded)
+	 * @param maxHorizonUnit unit of maxHorizon [bars | minutes]
+	 */
+	public CalcParameters(final float increasePercentage, final float decreasePercentage, final int maxLevels, final int maxHorizon, final String maxHorizonUnit) {
+		this.increasePercentage = increasePercentage;
+		this.decreasePercentage = decreasePercentage;
+		this.increase = (1+(increasePercentage)/100);
+		this.decrease = (1-(decreasePercentage)/100);
+		this.maxLevels = maxLevels;
+		this.maxHorizon = maxHorizon;
+		this.maxHorizonUnit = maxHorizonUnit;
+	}
+
+	// Returns every combination of increase, decrease and max. levels (parameter sweep)
+	public static List<CalcParameters> getCombinations(final List<Float> increasePercentages, final List<Float> decreasePercentages, final List<Integer> maxLevels, final int maxHorizon, final String maxHorizonUnit) {
+		List<CalcParameters> combinations = new ArrayList<CalcParameters>();
+		for (float increasePercentage : increasePercentages) {
+			for (float decreasePercentage : decreasePercentages) {
+				for (int levels : maxLevels) {
+					combinations.add(new CalcParameters(increasePercentage, decreasePercentage, levels, maxHorizon, maxHorizonUnit));
+				}
+			}
+		}
+		return combinations;
+	}
+
+	// Copy of these parameters with a different max. levels
+	public final CalcParameters withMaxLevels(final int maxLevels) {
+		return new CalcParameters(increasePercentage, decreasePercentage, maxLevels, maxHorizon, maxHorizonUnit);
+	}
+
+	// Combinations with the same scan key only differ in max. levels
+	public final String getScanKey() {
+		return increasePercentage + "|" + decreasePercentage;
+	}
+
+	public final float getIncreasePercentage() { return increasePercentage; }
+	public final float getDecreasePercentage() { return decreasePercentage; }
+	public final float getIncrease() { return increase; }
+	public final float getDecrease() { return decrease; }
+	public final int getMaxLevels() { return maxLevels; }
+	public final int getMaxHorizon() { return maxHorizon; }
+	public final String getMaxHorizonUnit() { return maxHorizonUnit; }
+	public final boolean isHorizonBounded() { return maxHorizon > 0; }
+	public final boolean isHorizonInMinutes() { return HORIZON_MINUTES.equals(maxHorizonUnit); }
+
+	@Override
+	public String toString() {
+		return "increase percentage|" + increasePercentage + "|decrease percentage|" + decreasePercentage + "|max. levels|" + maxLevels;
+	}
+}
@@ -1,4 +1,5 @@
 package datamodel;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class CalcResult {
@@ -13,9 +14,11 @@ public class CalcResult {
 	private long calculationStartTime;	
 	private long calculationStopTime;
 	private long totalCalculations;
-	private Map<String,Integer> levelResults;
+	// Level hits indexed by level (position 0 is not used)
+	private long[] upHits;
+	private long[] downHits;
 	
-	public CalcResult(final String currencyPair, final float increase, final float decrease, final int maxLevels, final long histDataStartTime, final long histDataStopTime, final long totalHistDataLoaded, final long calculationStartTime, final long calculationStopTime, final long totalCalculations, final Map<String,Integer> levelResults) {
+	public CalcResult(final String currencyPair, final float increase, final float decrease, final int maxLevels, final long histDataStartTime, final long histDataStopTime, final long totalHistDataLoaded, final long calculationStartTime, final long calculationStopTime, final long totalCalculations, final long[] upHits, final long[] downHits) {
 		this.currencyPair = currencyPair;
 		this.increase = increase;
 		this.decrease = decrease;
@@ -26,7 +29,8 @@ public class CalcResult {
 		this.calculationStartTime = calculationStartTime;
 		this.calculationStopTime = calculationStopTime;
 		this.totalCalculations = totalCalculations;
-		this.levelResults = levelResults;
+		this.upHits = upHits;
+		this.downHits = downHits;
 	}
 	
 	public final String getCurrencyPair() { return currencyPair; }
@@ -39,5 +43,28 @@ public class CalcResult {
 	public final long getCalculationStartTime() { return calculationStartTime; }
 	public final long getCalculationStopTime() { return calculationStopTime; }
 	public final long getTotalCalculations() { return totalCalculations; }
-	public final Map<String,Integer> getLevelResults() { return levelResults; }
+	public final long[] getUpHits() { return upHits; }
+	public final long[] getDownHits() { return downHits; }
+	public final long getUpHits(final int level) { return (level < upHits.length) ? upHits[level] : 0; }
+	public final long getDownHits(final int level) { return (level < downHits.length) ? downHits[level] : 0; }
+
+	// Number of levels with hits (one result per direction)
+	public final int getTotalResults() {
+		int totalResults = 0;
+		for (int level=1; level<upHits.length; level++) {
+			if (upHits[level] > 0) totalResults++;
+			if (downHits[level] > 0) totalResults++;
+		}
+		return totalResults;
+	}
+
+	// Level hits with the previous "UP-n" / "DOWN-n" keys (only levels with hits)
+	public final Map<String,Integer> getLevelResults() {
+		Map<String,Integer> levelResults = new LinkedHashMap<String,Integer>();
+		for (int level=1; level<upHits.length; level++) {
+			if (upHits[level] > 0) levelResults.put("UP-"+level, (int) upHits[level]);
+			if (downHits[level] > 0) levelResults.put("DOWN-"+level, (int) downHits[level]);
+		}
+		return levelResults;
+	}
 } 
\ No newline at end of file
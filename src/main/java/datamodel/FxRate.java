@@ -77,7 +77,8 @@ public class FxRate {
 		return close;
 	}
 	
-	private final boolean checkFilter (final String rowDate, final String startDate, final String endDate) throws Exception {
+	// Checks if the row date is within the start and end dates (both included)
+	public static final boolean checkFilter (final String rowDate, final String startDate, final String endDate) throws Exception {
 		boolean result = false;
 		
 		DateFormat format = new SimpleDateFormat("yyyy-MM-dd");
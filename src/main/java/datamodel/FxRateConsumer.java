@@ -0,0 +1,17 @@
+package datamodel;
+
+/**
+ * Receives the historical data of a currency pair one rate at a time, in time order.
+ * Implemented by FxSeries (materialised series) and by the streaming calculation engine.
+ */
+public interface FxRateConsumer {
+
+	/**
+	 * @param timestamp minutes since epoch (UTC)
+	 * @param open
+	 * @param high
+	 * @param low
+	 * @param close
+	 */
+	public void add(final int timestamp, final float open, final float high, final float low, final float close);
+}
@@ -0,0 +1,123 @@
+package datamodel;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+
+/**
+ * Columnar historical data of a currency pair.
+ * Every position is stored in parallel primitive arrays (timestamp in minutes since epoch, open, high, low, close),
+ * so the calculations read them without pointer-chasing or boxing.
+ * The arrays returned by the getters may be longer than size(); only the first size() positions are valid.
+ */
+public class FxSeries implements FxRateConsumer {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+	// Timestamp and open, high, low, close
+	public static final int BYTES_PER_RATE = Integer.BYTES + (4 * Float.BYTES);
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+
+	private String currencyPair;
+	private int size;
+	private int[] timestamps;
+	private float[] open;
+	private float[] high;
+	private float[] low;
+	private float[] close;
+
+	public FxSeries(final String currencyPair) {
+		this(currencyPair, DEFAULT_CAPACITY);
+	}
+
+	public FxSeries(final String currencyPair, final int initialCapacity) {
+		int capacity = Math.max(1, initialCapacity);
+		this.currencyPair = currencyPair;
+		this.timestamps = new int[capacity];
+		this.open = new float[capacity];
+		this.high = new float[capacity];
+		this.low = new float[capacity];
+		this.close = new float[capacity];
+	}
+
+	// Series over already loaded columns (i.e. read from the binary cache)
+	public FxSeries(final String currencyPair, final int[] timestamps, final float[] open, final float[] high, final float[] low, final float[] close) {
+		this.currencyPair = currencyPair;
+		this.size = timestamps.length;
+		this.timestamps = timestamps;
+		this.open = open;
+		this.high = high;
+		this.low = low;
+		this.close = close;
+	}
+
+	@Override
+	public final void add(final int timestamp, final float open, final float high, final float low, final float close) {
+		if (size == timestamps.length) {
+			grow(Math.max(DEFAULT_CAPACITY, size * 2));
+		}
+		this.timestamps[size] = timestamp;
+		this.open[size] = open;
+		this.high[size] = high;
+		this.low[size] = low;
+		this.close[size] = close;
+		size++;
+	}
+
+	// Releases the unused capacity once the series is fully loaded
+	public final void trimToSize() {
+		if (size > 0 && size < timestamps.length) {
+			grow(size);
+		}
+	}
+
+	private void grow(final int capacity) {
+		timestamps = Arrays.copyOf(timestamps, capacity);
+		open = Arrays.copyOf(open, capacity);
+		high = Arrays.copyOf(high, capacity);
+		low = Arrays.copyOf(low, capacity);
+		close = Arrays.copyOf(close, capacity);
+	}
+
+	// Approximate heap used by the rates (every position of the arrays)
+	public final long getSizeInBytes() { return (long) timestamps.length * BYTES_PER_RATE; }
+	public final String getCurrencyPair() { return currencyPair; }
+	public final int size() { return size; }
+	public final int[] getTimestamps() { return timestamps; }
+	public final float[] getOpen() { return open; }
+	public final float[] getHigh() { return high; }
+	public final float[] getLow() { return low; }
+	public final float[] getClose() { return close; }
+
+	// Returns the first position with timestamp >= the given one (size() if there is none)
+	public final int getPosition(final int timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// Copy of the positions in [fromPosition, toPosition)
+	public final FxSeries subSeries(final int fromPosition, final int toPosition) {
+		return new FxSeries(currencyPair,
+				Arrays.copyOfRange(timestamps, fromPosition, toPosition),
+				Arrays.copyOfRange(open, fromPosition, toPosition),
+				Arrays.copyOfRange(high, fromPosition, toPosition),
+				Arrays.copyOfRange(low, fromPosition, toPosition),
+				Arrays.copyOfRange(close, fromPosition, toPosition));
+	}
+
+	// Row view of a single position (not intended for the calculations)
+	public final FxRate getFxRate(final int positionId) {
+		LocalDateTime dateTime = LocalDateTime.ofEpochSecond(timestamps[positionId] * 60L, 0, ZoneOffset.UTC);
+		return new FxRate(positionId, currencyPair, dateTime.format(DATE_FORMAT), dateTime.format(TIME_FORMAT), open[positionId], high[positionId], low[positionId], close[positionId]);
+	}
+}
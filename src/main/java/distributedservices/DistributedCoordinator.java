@@ -0,0 +1,313 @@
+package distributedservices;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datamodel.CalcParameters;
+import datamodel.CalcResult;
+import executionservices.ExecutionMetrics;
+import resultservices.ResultsSink;
+
+/**
+ * Coordinator node: splits the currency pairs (and optionally their dates, distributed.dateShards) into tasks,
+ * sends them to the workers (host:port) and merges their results into the Calculation Result Maps.
+ * Every connection to a worker takes the next pending task, so faster workers take more tasks.
+ * A task whose worker fails (or sends nothing, not even a keep-alive, within the timeout) is put back to be taken by another connection.
+ * After retryMaxAttempts consecutive failures the connection is dropped, and when no connection is left the
+ * coordinator calculates the remaining tasks itself.
+ */
+public class DistributedCoordinator {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(DistributedCoordinator.class);
+
+	private final String datasource;
+	private final List<String> workers;
+	private final int connectionsPerWorker;
+	private final int timeoutMillis;
+	private final int retryMaxAttempts;
+	private final int retrySleepTime;
+
+	private final BlockingDeque<DistributedTask> pendingTasks = new LinkedBlockingDeque<DistributedTask>();
+	private CountDownLatch latch;
+
+	// Results of the pairs being merged (shards) and shards not finished yet per pair
+	private final Map<String, CalcResult[]> mergedResults = new HashMap<String, CalcResult[]>();
+	private final Map<String, Integer> pendingShards = new HashMap<String, Integer>();
+	private List<Map<String, CalcResult>> calcResultsMaps;
+	// Results of every pair written as soon as it is merged (null: not written)
+	private ResultsSink resultsSink;
+
+	public DistributedCoordinator (final String datasource, final List<String> workers, final int connectionsPerWorker, final int timeoutSecs, final int retryMaxAttempts, final int retrySleepTime) {
+		this.datasource = datasource;
+		this.workers = workers;
+		this.connectionsPerWorker = Math.max(1, connectionsPerWorker);
+		this.timeoutMillis = timeoutSecs * 1000;
+		this.retryMaxAttempts = retryMaxAttempts;
+		this.retrySleepTime = retrySleepTime;
+	}
+
+	public void setResultsSink (final ResultsSink resultsSink) {
+		this.resultsSink = resultsSink;
+	}
+
+	// Calculates every pair in the workers and populates calcResultsMaps (one per combination of calcParametersList)
+	public void execute (final List<String> currencyPairs, final String startDate, final String endDate, final int dateShards, final List<CalcParameters> calcParametersList, final List<Map<String, CalcResult>> calcResultsMaps) throws InterruptedException {
+
+		this.calcResultsMaps = calcResultsMaps;
+
+		List<DistributedTask> tasks = createTasks(currencyPairs, startDate, endDate, dateShards, calcParametersList);
+		latch = new CountDownLatch(tasks.size());
+		for (DistributedTask task : tasks) {
+			Integer shards = pendingShards.get(task.getCurrency());
+			pendingShards.put(task.getCurrency(), (shards != null) ? shards + 1 : 1);
+		}
+		pendingTasks.addAll(tasks);
+		logger.info ("Sending " + tasks.size() + " tasks to " + workers.size() + " workers: " + workers);
+
+		List<Thread> connectionThreads = new ArrayList<Thread>();
+		for (final String worker : workers) {
+			for (int i=0; i<connectionsPerWorker; i++) {
+				Thread connectionThread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						runConnection(worker);
+					}
+				}, "coordinator-" + worker + "-" + i);
+				connectionThread.start();
+				connectionThreads.add(connectionThread);
+			}
+		}
+
+		while (!latch.await(1, TimeUnit.SECONDS)) {
+			if (!isAnyAlive(connectionThreads)) {
+				// Failed connections put their task back before finishing, so every task left is pending
+				logger.warn ("No worker available: calculating the remaining " + pendingTasks.size() + " tasks locally");
+				DistributedTask task;
+				while ((task = pendingTasks.poll()) != null) {
+					long startTime = System.currentTimeMillis();
+					complete(task, DistributedWorker.execute(datasource, task), System.currentTimeMillis() - startTime, true);
+				}
+			}
+		}
+
+		for (Thread connectionThread : connectionThreads) {
+			connectionThread.join();
+		}
+	}
+
+	// One task per pair, or one per date shard: shards load the data up to endDate (chains starting in the shard
+	// may end after it), but only start chains within the shard (and only count the historical data of the shard)
+	private static List<DistributedTask> createTasks (final List<String> currencyPairs, final String startDate, final String endDate, final int dateShards, final List<CalcParameters> calcParametersList) {
+
+		List<DistributedTask> tasks = new ArrayList<DistributedTask>();
+
+		LocalDate start = LocalDate.parse(startDate);
+		long days = LocalDate.parse(endDate).toEpochDay() - start.toEpochDay() + 1;
+		int shards = (int) Math.max(1, Math.min(dateShards, days));
+
+		// Repeated pairs are calculated once
+		for (String currency : new LinkedHashSet<String>(currencyPairs)) {
+			if (shards == 1) {
+				tasks.add(new DistributedTask(tasks.size(), currency, startDate, endDate, null, calcParametersList));
+			} else {
+				for (int shard=0; shard<shards; shard++) {
+					String shardStartDate = start.plusDays(days * shard / shards).toString();
+					String shardLastDate = start.plusDays(days * (shard+1) / shards - 1).toString();
+					tasks.add(new DistributedTask(tasks.size(), currency, shardStartDate, endDate, shardLastDate, calcParametersList));
+				}
+			}
+		}
+		return tasks;
+	}
+
+	// Sends the pending tasks to the worker through one connection (reconnecting after failures)
+	private void runConnection (final String worker) {
+
+		int separator = worker.lastIndexOf(':');
+		InetSocketAddress address = new InetSocketAddress(worker.substring(0, separator).trim(), Integer.parseInt(worker.substring(separator+1).trim()));
+
+		Socket socket = null;
+		DataInputStream input = null;
+		DataOutputStream output = null;
+		int failures = 0;
+
+		try {
+			while (latch.getCount() > 0) {
+
+				DistributedTask task = pendingTasks.poll(1, TimeUnit.SECONDS);
+				if (task == null) {
+					continue;
+				}
+
+				long startTime = System.currentTimeMillis();
+				try {
+					if (socket == null) {
+						socket = new Socket();
+						socket.connect(address, timeoutMillis);
+						// Idle timeout, not a task deadline: workers send keep-alives while calculating (DistributedProtocol),
+						// so only a worker silent for timeoutMillis (dead, hung or unreachable) has its task reassigned
+						socket.setSoTimeout(timeoutMillis);
+						socket.setTcpNoDelay(true);
+						input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+						output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+						logger.info ("Connected to worker " + worker);
+					}
+
+					logger.debug ("Sending " + task + " to worker " + worker);
+					DistributedProtocol.writeTask(output, task);
+					CalcResult[] calcResults = DistributedProtocol.readResults(input, task);
+					failures = 0;
+					complete(task, calcResults, System.currentTimeMillis() - startTime, false);
+
+				} catch (Exception e) {
+					// Any failure (not only I/O) reassigns the task: a lost task would never count down the latch.
+					// Reassigned: taken by the next connection available
+					pendingTasks.addFirst(task);
+					close(socket);
+					socket = null;
+					logger.warn ("Worker " + worker + " failed calculating " + task + " (" + e.getClass().getSimpleName() + " - " + e.getMessage() + "), task reassigned");
+
+					if (++failures > retryMaxAttempts) {
+						logger.error ("Worker " + worker + " dropped after " + failures + " consecutive failures");
+						return;
+					}
+					Thread.sleep(retrySleepTime);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			close(socket);
+		}
+	}
+
+	private static void close (final Socket socket) {
+		try {
+			if (socket != null) {
+				socket.close();
+			}
+		} catch (IOException e) {
+			logger.debug ("Exception while closing the connection: " + e.getMessage());
+		}
+	}
+
+	private static boolean isAnyAlive (final List<Thread> threads) {
+		for (Thread thread : threads) {
+			if (thread.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Merges the results of the task. Once every shard of the pair is merged, its results are published
+	// Load and calculation times are recorded per task: by the worker thread for local tasks, here for the remote ones
+	private synchronized void complete (final DistributedTask task, final CalcResult[] calcResults, final long elapsedTimeMillis, final boolean local) {
+
+		String currency = task.getCurrency();
+		ExecutionMetrics.getInstance().recordExecution(elapsedTimeMillis, getTotalHistDataLoaded(calcResults), getTotalCalculations(calcResults), getTotalResults(calcResults));
+		if (!local && calcResults.length > 0 && calcResults[0] != null) {
+			ExecutionMetrics.getInstance().recordCalcResult(calcResults[0]);
+		}
+
+		CalcResult[] merged = mergedResults.get(currency);
+		if (merged == null) {
+			merged = new CalcResult[calcResults.length];
+			mergedResults.put(currency, merged);
+		}
+		for (int i=0; i<calcResults.length; i++) {
+			merged[i] = merge(merged[i], calcResults[i]);
+		}
+
+		int pending = pendingShards.get(currency) - 1;
+		pendingShards.put(currency, pending);
+
+		if (pending == 0) {
+			mergedResults.remove(currency);
+			for (int i=0; i<merged.length; i++) {
+				if (merged[i] != null) {
+					calcResultsMaps.get(i).put(currency, merged[i]);
+				}
+			}
+			if (merged.length == 0 || merged[0] == null) {
+				logger.error ("No available data for " + currency);
+			}
+			// Pairs without data are written too (null results, written as zeros)
+			if (resultsSink != null) {
+				resultsSink.write(currency, merged);
+			}
+			ExecutionMetrics.getInstance().getProgress(currency).done();
+			logger.info ("Finished " + currency);
+		}
+		latch.countDown();
+	}
+
+	// Shards of a pair: hits, calculations and historical data (the rows of every shard's own range) are added
+	private static CalcResult merge (final CalcResult a, final CalcResult b) {
+
+		if (a == null || b == null) {
+			return (a != null) ? a : b;
+		}
+
+		int maxLevels = Math.max(a.getmaxLevels(), b.getmaxLevels());
+		long[] upHits = new long[maxLevels+1];
+		long[] downHits = new long[maxLevels+1];
+		for (int level=1; level<=maxLevels; level++) {
+			upHits[level] = a.getUpHits(level) + b.getUpHits(level);
+			downHits[level] = a.getDownHits(level) + b.getDownHits(level);
+		}
+
+		return new CalcResult(a.getCurrencyPair(), a.getIncrease(), a.getDecrease(), maxLevels,
+				Math.min(a.getHistDataStartTime(), b.getHistDataStartTime()), Math.max(a.getHistDataStopTime(), b.getHistDataStopTime()), a.getTotalHistDataLoaded() + b.getTotalHistDataLoaded(),
+				Math.min(a.getCalculationStartTime(), b.getCalculationStartTime()), Math.max(a.getCalculationStopTime(), b.getCalculationStopTime()), a.getTotalCalculations() + b.getTotalCalculations(),
+				upHits, downHits);
+	}
+
+	// Totals of the results of a task (load and calculation totals are shared by all the combinations)
+	public static long getTotalHistDataLoaded (final CalcResult[] calcResults) {
+		for (CalcResult calcResult : calcResults) {
+			if (calcResult != null) {
+				return calcResult.getTotalHistDataLoaded();
+			}
+		}
+		return 0;
+	}
+
+	public static long getTotalCalculations (final CalcResult[] calcResults) {
+		for (CalcResult calcResult : calcResults) {
+			if (calcResult != null) {
+				return calcResult.getTotalCalculations();
+			}
+		}
+		return 0;
+	}
+
+	public static long getTotalResults (final CalcResult[] calcResults) {
+		long totalResults = 0;
+		for (CalcResult calcResult : calcResults) {
+			if (calcResult != null) {
+				totalResults += calcResult.getTotalResults();
+			}
+		}
+		return totalResults;
+	}
+}
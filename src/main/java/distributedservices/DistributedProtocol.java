@@ -0,0 +1,145 @@
+package distributedservices;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import datamodel.CalcParameters;
+import datamodel.CalcResult;
+
+/**
+ * Messages exchanged by the coordinator and the workers over TCP (DataInput / DataOutput streams).
+ * Every connection carries one task at a time:
+ *  - task: MAGIC, VERSION, id, currency, start date, end date, last start date ("" when not sharded)
+ *    and the parameter combinations (increase %, decrease %, max. levels, max. horizon and unit)
+ *  - results: MAGIC, id and, per combination, whether there is a result followed by its times, totals and
+ *    level hits (as in ResultCache). No combination has a result when the pair has no data
+ *  - keep-alive: KEEP_ALIVE, sent by the worker every distributed.keepAliveSecs while it calculates a task, so the
+ *    coordinator tells a dead worker (silent connection) from a long task
+ */
+public class DistributedProtocol {
+
+	private static final int MAGIC = 0x46584454; // FXDT
+	private static final int VERSION = 2;
+	private static final int KEEP_ALIVE = 0x46584b41; // FXKA
+
+	public static void writeTask (final DataOutputStream output, final DistributedTask task) throws IOException {
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeInt(task.getId());
+		output.writeUTF(task.getCurrency());
+		output.writeUTF(task.getStartDate());
+		output.writeUTF(task.getEndDate());
+		output.writeUTF((task.getLastStartDate() != null) ? task.getLastStartDate() : "");
+		output.writeInt(task.getCalcParametersList().size());
+		for (CalcParameters params : task.getCalcParametersList()) {
+			output.writeFloat(params.getIncreasePercentage());
+			output.writeFloat(params.getDecreasePercentage());
+			output.writeInt(params.getMaxLevels());
+			output.writeInt(params.getMaxHorizon());
+			output.writeUTF(params.getMaxHorizonUnit());
+		}
+		output.flush();
+	}
+
+	// Next task of the connection (null when the coordinator closes it)
+	public static DistributedTask readTask (final DataInputStream input) throws IOException {
+
+		int magic;
+		try {
+			magic = input.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (magic != MAGIC || input.readInt() != VERSION) {
+			throw new IOException("Unexpected task message");
+		}
+
+		int id = input.readInt();
+		String currency = input.readUTF();
+		String startDate = input.readUTF();
+		String endDate = input.readUTF();
+		String lastStartDate = input.readUTF();
+
+		int combinations = input.readInt();
+		if (combinations < 0) {
+			throw new IOException("Unexpected combinations " + combinations + " in the task message");
+		}
+		List<CalcParameters> calcParametersList = new ArrayList<CalcParameters>(combinations);
+		for (int i=0; i<combinations; i++) {
+			calcParametersList.add(new CalcParameters(input.readFloat(), input.readFloat(), input.readInt(), input.readInt(), input.readUTF()));
+		}
+		return new DistributedTask(id, currency, startDate, endDate, lastStartDate.isEmpty() ? null : lastStartDate, calcParametersList);
+	}
+
+	// Results of the task, one per combination (null elements are not available)
+	public static void writeResults (final DataOutputStream output, final DistributedTask task, final CalcResult[] calcResults) throws IOException {
+		output.writeInt(MAGIC);
+		output.writeInt(task.getId());
+		for (CalcResult calcResult : calcResults) {
+			output.writeBoolean(calcResult != null);
+			if (calcResult != null) {
+				output.writeLong(calcResult.getHistDataStartTime());
+				output.writeLong(calcResult.getHistDataStopTime());
+				output.writeLong(calcResult.getTotalHistDataLoaded());
+				output.writeLong(calcResult.getCalculationStartTime());
+				output.writeLong(calcResult.getCalculationStopTime());
+				output.writeLong(calcResult.getTotalCalculations());
+				output.writeInt(calcResult.getmaxLevels());
+				for (int level=1; level<=calcResult.getmaxLevels(); level++) {
+					output.writeLong(calcResult.getUpHits(level));
+					output.writeLong(calcResult.getDownHits(level));
+				}
+			}
+		}
+		output.flush();
+	}
+
+	public static void writeKeepAlive (final DataOutputStream output) throws IOException {
+		output.writeInt(KEEP_ALIVE);
+		output.flush();
+	}
+
+	// Results of the task, skipping the keep-alives sent while it is calculated
+	public static CalcResult[] readResults (final DataInputStream input, final DistributedTask task) throws IOException {
+
+		int magic;
+		do {
+			magic = input.readInt();
+		} while (magic == KEEP_ALIVE);
+
+		if (magic != MAGIC || input.readInt() != task.getId()) {
+			throw new IOException("Unexpected results message for " + task);
+		}
+
+		List<CalcParameters> calcParametersList = task.getCalcParametersList();
+		CalcResult[] calcResults = new CalcResult[calcParametersList.size()];
+		for (int i=0; i<calcResults.length; i++) {
+			if (input.readBoolean()) {
+				CalcParameters params = calcParametersList.get(i);
+				long histDataStartTime = input.readLong();
+				long histDataStopTime = input.readLong();
+				long totalHistDataLoaded = input.readLong();
+				long calculationStartTime = input.readLong();
+				long calculationStopTime = input.readLong();
+				long totalCalculations = input.readLong();
+				int maxLevels = input.readInt();
+				// Checked before allocating the hits: a corrupt message would allocate (or fail on) any size
+				if (maxLevels != params.getMaxLevels()) {
+					throw new IOException("Unexpected max. levels " + maxLevels + " in the results of " + task);
+				}
+				long[] upHits = new long[maxLevels+1];
+				long[] downHits = new long[maxLevels+1];
+				for (int level=1; level<=maxLevels; level++) {
+					upHits[level] = input.readLong();
+					downHits[level] = input.readLong();
+				}
+				calcResults[i] = new CalcResult(task.getCurrency(), params.getIncrease(), params.getDecrease(), maxLevels, histDataStartTime, histDataStopTime, totalHistDataLoaded, calculationStartTime, calculationStopTime, totalCalculations, upHits, downHits);
+			}
+		}
+		return calcResults;
+	}
+}
@@ -0,0 +1,41 @@
+package distributedservices;
+
+import java.util.List;
+
+import datamodel.CalcParameters;
+
+/**
+ * Currency pair (or date shard of a pair) sent by the coordinator to a worker.
+ * The historical data is loaded from startDate to endDate, but chains only start up to lastStartDate
+ * (null when the pair is not sharded).
+ */
+public class DistributedTask {
+
+	private final int id;
+	private final String currency;
+	private final String startDate;
+	private final String endDate;
+	private final String lastStartDate;
+	private final List<CalcParameters> calcParametersList;
+
+	public DistributedTask (final int id, final String currency, final String startDate, final String endDate, final String lastStartDate, final List<CalcParameters> calcParametersList) {
+		this.id = id;
+		this.currency = currency;
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.lastStartDate = lastStartDate;
+		this.calcParametersList = calcParametersList;
+	}
+
+	public final int getId() { return this.id; }
+	public final String getCurrency() { return this.currency; }
+	public final String getStartDate() { return this.startDate; }
+	public final String getEndDate() { return this.endDate; }
+	public final String getLastStartDate() { return this.lastStartDate; }
+	public final List<CalcParameters> getCalcParametersList() { return this.calcParametersList; }
+
+	@Override
+	public String toString() {
+		return currency + ((lastStartDate != null) ? (" [" + startDate + " - " + lastStartDate + "]") : "");
+	}
+}
@@ -0,0 +1,165 @@
+package distributedservices;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datamodel.CalcResult;
+import executionservices.ExecutionMetrics;
+import executionservices.RunnableWorkerThread;
+
+/**
+ * Worker node: calculates the tasks sent by coordinators (see DistributedProtocol) with its own datasource.
+ * Every connection is served by its own thread, one task at a time, so a coordinator runs as many tasks
+ * at the same time in this worker as connections it opens (distributed.connectionsPerWorker).
+ * While a task is calculated, a keep-alive is sent every keepAliveSecs (0: none), so coordinators only time out
+ * connections of workers that stopped answering, not long tasks.
+ */
+public class DistributedWorker {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(DistributedWorker.class);
+
+	private final String datasource;
+	private final int keepAliveMillis;
+	private ServerSocket serverSocket;
+
+	public DistributedWorker (final String datasource, final int keepAliveSecs) {
+		this.datasource = datasource;
+		this.keepAliveMillis = keepAliveSecs * 1000;
+	}
+
+	// Serves the coordinators until the worker is stopped
+	public void serve (final int port) throws IOException {
+
+		serverSocket = new ServerSocket(port);
+		logger.info ("Worker listening on port " + serverSocket.getLocalPort());
+
+		while (!serverSocket.isClosed()) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				if (serverSocket.isClosed()) {
+					break;
+				}
+				throw e;
+			}
+
+			Thread connectionThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					serveConnection(socket);
+				}
+			}, "connection-" + socket.getRemoteSocketAddress());
+			connectionThread.setDaemon(true);
+			connectionThread.start();
+		}
+	}
+
+	public void stop () {
+		try {
+			if (serverSocket != null) {
+				serverSocket.close();
+			}
+		} catch (IOException e) {
+			logger.error ("Exception while stopping the worker: " + e.getClass() + " - " + e.getMessage());
+		}
+	}
+
+	private void serveConnection (final Socket socket) {
+
+		logger.info ("Coordinator connected from " + socket.getRemoteSocketAddress());
+
+		try (Socket connection = socket;
+			 DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+			 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+
+			connection.setTcpNoDelay(true);
+
+			DistributedTask task;
+			while ((task = DistributedProtocol.readTask(input)) != null) {
+				logger.info ("Calculating " + task);
+				long startTime = System.currentTimeMillis();
+				Thread keepAlive = startKeepAlive(output, task);
+				CalcResult[] calcResults;
+				try {
+					calcResults = execute(datasource, task);
+				} finally {
+					// Stopped before writing the results: both write to the same stream
+					if (keepAlive != null) {
+						keepAlive.interrupt();
+						keepAlive.join();
+					}
+				}
+				DistributedProtocol.writeResults(output, task, calcResults);
+				long elapsedTimeMillis = System.currentTimeMillis() - startTime;
+				ExecutionMetrics.getInstance().recordExecution(elapsedTimeMillis, DistributedCoordinator.getTotalHistDataLoaded(calcResults), DistributedCoordinator.getTotalCalculations(calcResults), DistributedCoordinator.getTotalResults(calcResults));
+				logger.info ("Finished " + task + " in " + elapsedTimeMillis + " ms");
+			}
+			logger.info ("Coordinator disconnected from " + socket.getRemoteSocketAddress());
+		} catch (Exception e) {
+			logger.error ("Exception while serving " + socket.getRemoteSocketAddress() + ": " + e.getClass() + " - " + e.getMessage());
+		}
+	}
+
+	// Sends a keep-alive every keepAliveMillis until interrupted (null when keep-alives are disabled)
+	private Thread startKeepAlive (final DataOutputStream output, final DistributedTask task) {
+
+		if (keepAliveMillis <= 0) {
+			return null;
+		}
+
+		Thread keepAlive = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Thread.sleep(keepAliveMillis);
+						DistributedProtocol.writeKeepAlive(output);
+					}
+				} catch (InterruptedException e) {
+					// Task calculated
+				} catch (IOException e) {
+					// The coordinator is gone: writing the results fails as well
+					logger.warn ("Exception while sending a keep-alive for " + task + ": " + e.getClass() + " - " + e.getMessage());
+				}
+			}
+		}, "keep-alive-" + task);
+		keepAlive.setDaemon(true);
+		keepAlive.start();
+		return keepAlive;
+	}
+
+	// Calculates the task in the current thread (also used by the coordinator when no worker is left)
+	// Returns one result per combination of the task (null elements when the pair has no data)
+	public static CalcResult[] execute (final String datasource, final DistributedTask task) {
+
+		List<Map<String, CalcResult>> calcResultsMaps = new ArrayList<Map<String, CalcResult>>();
+		for (int i=0; i<task.getCalcParametersList().size(); i++) {
+			calcResultsMaps.add(new HashMap<String, CalcResult>());
+		}
+
+		RunnableWorkerThread worker = new RunnableWorkerThread(datasource, task.getCurrency(), task.getCalcParametersList(), calcResultsMaps, new CountDownLatch(1));
+		worker.setDates(task.getStartDate(), task.getEndDate(), task.getLastStartDate());
+		worker.run();
+
+		CalcResult[] calcResults = new CalcResult[calcResultsMaps.size()];
+		for (int i=0; i<calcResults.length; i++) {
+			calcResults[i] = calcResultsMaps.get(i).get(task.getCurrency());
+		}
+		return calcResults;
+	}
+}
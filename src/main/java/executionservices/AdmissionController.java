@@ -0,0 +1,79 @@
+package executionservices;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory budget aware admission of the workers (workerpool.memoryBudgetMb).
+ * The footprint of every worker is estimated before admitting it (RunnableWorkerThread.estimateFootprint), and
+ * the workers running (loading or calculating) never exceed the budget: the others wait until enough budget is
+ * released. Waiting workers are admitted in submission order as soon as they fit, so small workers keep flowing
+ * around a large one. A worker greater than the whole budget runs alone.
+ */
+public class AdmissionController {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+	private final MemoryBudget budget;
+	private final SystemThreadPoolExecutor executor;
+	private final LoadPipeline loadPipeline;
+
+	private final List<RunnableWorkerThread> pendingWorkers = new LinkedList<RunnableWorkerThread>();
+	private final List<Long> pendingBytes = new LinkedList<Long>();
+
+	// Admitted workers go to the load pipeline when not null, otherwise to the executor
+	public AdmissionController (final long budgetBytes, final SystemThreadPoolExecutor executor, final LoadPipeline loadPipeline) {
+		this.budget = new MemoryBudget(budgetBytes);
+		this.executor = executor;
+		this.loadPipeline = loadPipeline;
+	}
+
+	public void submit (final RunnableWorkerThread worker) {
+		long bytes = worker.estimateFootprint();
+		logger.debug ("Estimated footprint of " + worker.getCurrentCurrency() + ": " + (bytes >> 20) + " MB");
+
+		synchronized (this) {
+			pendingWorkers.add(worker);
+			pendingBytes.add(bytes);
+		}
+		admit();
+	}
+
+	public void release (final long bytes) {
+		budget.release(bytes);
+		admit();
+	}
+
+	// Admits every waiting worker fitting in the budget
+	private synchronized void admit () {
+		Iterator<RunnableWorkerThread> workers = pendingWorkers.iterator();
+		Iterator<Long> bytes = pendingBytes.iterator();
+
+		while (workers.hasNext()) {
+			RunnableWorkerThread worker = workers.next();
+			long workerBytes = bytes.next();
+
+			if (budget.tryAcquire(workerBytes)) {
+				workers.remove();
+				bytes.remove();
+				worker.setAdmission(this, workerBytes);
+				if (loadPipeline != null) {
+					loadPipeline.submit(worker);
+				} else {
+					executor.execute(worker);
+				}
+			} else {
+				logger.debug ("Waiting for memory budget: " + worker.getCurrentCurrency() + " (" + (workerBytes >> 20) + " MB, used " + (budget.getUsed() >> 20) + " of " + (budget.getCapacity() >> 20) + " MB)");
+			}
+		}
+	}
+
+	public synchronized int getPendingWorkers () {
+		return pendingWorkers.size();
+	}
+}
@@ -0,0 +1,182 @@
+package executionservices;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datamodel.CalcResult;
+
+/**
+ * Execution metrics shared by the workers: totals (LongAdder, updated by every pool thread without contention)
+ * and latency histograms of every phase:
+ *  - execution: whole worker run
+ *  - load and calculation: per currency pair, from the start / stop times of its CalcResult
+ *  - report: formatting and writing of every results line
+ * Latencies are recorded in microseconds and returned in milliseconds.
+ * Also keeps the progress of every currency pair (by pair name).
+ * Registered as the MBean fxcalculator:type=ExecutionMetrics.
+ */
+public class ExecutionMetrics implements ExecutionMetricsMBean {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(ExecutionMetrics.class);
+
+	public static final String OBJECT_NAME = "fxcalculator:type=ExecutionMetrics";
+
+	private static final ExecutionMetrics instance = new ExecutionMetrics();
+
+	private final LongAdder totalExecutions = new LongAdder();
+	private final LongAdder totalExecutionTime = new LongAdder();
+	private final LongAdder totalHistDataLoaded = new LongAdder();
+	private final LongAdder totalCalculations = new LongAdder();
+	private final LongAdder totalResults = new LongAdder();
+	// Combinations served from the result cache and their results (not in the totals)
+	private final LongAdder cachedCombinations = new LongAdder();
+	private final LongAdder cachedResults = new LongAdder();
+
+	// Bars and calculations of the pairs actually loaded and calculated (not cached), and their times (ms)
+	private final LongAdder loadedBars = new LongAdder();
+	private final LongAdder loadTime = new LongAdder();
+	private final LongAdder calculatedComparisons = new LongAdder();
+	private final LongAdder calculationTime = new LongAdder();
+
+	private final LatencyHistogram executionLatency = new LatencyHistogram();
+	private final LatencyHistogram loadLatency = new LatencyHistogram();
+	private final LatencyHistogram calculationLatency = new LatencyHistogram();
+	private final LatencyHistogram reportLatency = new LatencyHistogram();
+
+	private final ConcurrentMap<String, PairProgress> progressMap = new ConcurrentSkipListMap<String, PairProgress>();
+
+	public static ExecutionMetrics getInstance () {
+		return instance;
+	}
+
+	public static void register () {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(instance, name);
+			}
+		} catch (Exception e) {
+			logger.error ("Exception while registering the metrics MBean: " + e.getClass() + " - " + e.getMessage());
+		}
+	}
+
+	// Totals of a finished worker
+	public void recordExecution (final long elapsedTimeMillis, final long histDataLoaded, final long calculations, final long results) {
+		totalExecutions.increment();
+		totalExecutionTime.add(elapsedTimeMillis);
+		totalHistDataLoaded.add(histDataLoaded);
+		totalCalculations.add(calculations);
+		totalResults.add(results);
+		executionLatency.record(elapsedTimeMillis * 1000);
+	}
+
+	// Combinations of a currency pair read from the result cache
+	public void recordCachedResults (final long combinations, final long results) {
+		cachedCombinations.add(combinations);
+		cachedResults.add(results);
+	}
+
+	// Load and calculation times of a currency pair (any of its results, all of them share the times)
+	public void recordCalcResult (final CalcResult calcResult) {
+		long load = calcResult.getHistDataStopTime() - calcResult.getHistDataStartTime();
+		long calculation = calcResult.getCalculationStopTime() - calcResult.getCalculationStartTime();
+
+		loadedBars.add(calcResult.getTotalHistDataLoaded());
+		loadTime.add(load);
+		calculatedComparisons.add(calcResult.getTotalCalculations());
+		calculationTime.add(calculation);
+
+		loadLatency.record(load * 1000);
+		calculationLatency.record(calculation * 1000);
+	}
+
+	public void recordReport (final long nanos) {
+		reportLatency.record(nanos / 1000);
+	}
+
+	// Progress of the currency pair (created queued on first use)
+	public PairProgress getProgress (final String currency) {
+		PairProgress progress = progressMap.get(currency);
+		if (progress == null) {
+			PairProgress newProgress = new PairProgress(currency);
+			progress = progressMap.putIfAbsent(currency, newProgress);
+			if (progress == null) {
+				progress = newProgress;
+			}
+		}
+		return progress;
+	}
+
+	public Collection<PairProgress> getProgressList () {
+		return progressMap.values();
+	}
+
+	public final long getLoadedBars() { return loadedBars.sum(); }
+	public final long getLoadTimeMillis() { return loadTime.sum(); }
+	public final long getCalculatedComparisons() { return calculatedComparisons.sum(); }
+	public final long getCalculationTimeMillis() { return calculationTime.sum(); }
+	// Latencies (microseconds) exported as summaries by the metrics endpoint
+	public final LatencyHistogram getExecutionLatency() { return executionLatency; }
+	public final LatencyHistogram getLoadLatency() { return loadLatency; }
+	public final LatencyHistogram getCalculationLatency() { return calculationLatency; }
+
+	@Override public long getTotalExecutions() { return totalExecutions.sum(); }
+	@Override public long getTotalHistDataLoaded() { return totalHistDataLoaded.sum(); }
+	@Override public long getTotalCalculations() { return totalCalculations.sum(); }
+	@Override public long getTotalResults() { return totalResults.sum(); }
+	@Override public long getCachedCombinations() { return cachedCombinations.sum(); }
+	@Override public long getCachedResults() { return cachedResults.sum(); }
+
+	@Override
+	public long getAvgExecutionTime() {
+		long executions = totalExecutions.sum();
+		return (executions > 0) ? totalExecutionTime.sum() / executions : 0;
+	}
+
+	// Bars loaded per second of loading (all the workers)
+	@Override
+	public double getBarsPerSecond() {
+		return getRate(loadedBars.sum(), loadTime.sum());
+	}
+
+	// Comparisons per second of calculation (all the workers)
+	@Override
+	public double getCalculationsPerSecond() {
+		return getRate(calculatedComparisons.sum(), calculationTime.sum());
+	}
+
+	@Override public double getExecutionTimeP50() { return toMillis(executionLatency.getPercentile(0.50)); }
+	@Override public double getExecutionTimeP99() { return toMillis(executionLatency.getPercentile(0.99)); }
+	@Override public double getExecutionTimeMax() { return toMillis(executionLatency.getMax()); }
+
+	@Override public double getLoadTimeP50() { return toMillis(loadLatency.getPercentile(0.50)); }
+	@Override public double getLoadTimeP99() { return toMillis(loadLatency.getPercentile(0.99)); }
+	@Override public double getLoadTimeMax() { return toMillis(loadLatency.getMax()); }
+
+	@Override public double getCalculationTimeP50() { return toMillis(calculationLatency.getPercentile(0.50)); }
+	@Override public double getCalculationTimeP99() { return toMillis(calculationLatency.getPercentile(0.99)); }
+	@Override public double getCalculationTimeMax() { return toMillis(calculationLatency.getMax()); }
+
+	@Override public double getReportTimeP50() { return toMillis(reportLatency.getPercentile(0.50)); }
+	@Override public double getReportTimeP99() { return toMillis(reportLatency.getPercentile(0.99)); }
+	@Override public double getReportTimeMax() { return toMillis(reportLatency.getMax()); }
+
+	private static double getRate (final long count, final long millis) {
+		return (millis > 0) ? (count * 1000.0 / millis) : 0;
+	}
+
+	private static double toMillis (final long micros) {
+		return micros / 1000.0;
+	}
+}
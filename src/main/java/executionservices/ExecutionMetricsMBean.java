@@ -0,0 +1,34 @@
+package executionservices;
+
+/**
+ * JMX view of the execution metrics (fxcalculator:type=ExecutionMetrics). Times in milliseconds
+ */
+public interface ExecutionMetricsMBean {
+
+	long getTotalExecutions();
+	long getTotalHistDataLoaded();
+	long getTotalCalculations();
+	long getTotalResults();
+	long getCachedCombinations();
+	long getCachedResults();
+	long getAvgExecutionTime();
+
+	double getBarsPerSecond();
+	double getCalculationsPerSecond();
+
+	double getExecutionTimeP50();
+	double getExecutionTimeP99();
+	double getExecutionTimeMax();
+
+	double getLoadTimeP50();
+	double getLoadTimeP99();
+	double getLoadTimeMax();
+
+	double getCalculationTimeP50();
+	double getCalculationTimeP99();
+	double getCalculationTimeMax();
+
+	double getReportTimeP50();
+	double getReportTimeP99();
+	double getReportTimeMax();
+}
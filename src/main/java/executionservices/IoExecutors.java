@@ -0,0 +1,43 @@
+package executionservices;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executors of the I/O stage (LoadPipeline), by workerpool.ioExecutor:
+ *  - platform: a fixed pool of workerpool.ioThreads threads
+ *  - virtual: one virtual thread per load (the pipeline still limits the concurrent loads to workerpool.ioThreads,
+ *    so hundreds of loads can wait on JDBC or file I/O without holding platform threads).
+ *    Only available when built with the java21 profile (VirtualThreadExecutors) and running on Java 21+,
+ *    otherwise platform threads are used
+ */
+public class IoExecutors {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(IoExecutors.class);
+
+	public static final String PLATFORM = "platform";
+	public static final String VIRTUAL = "virtual";
+
+	// Compiled by the java21 profile only (src/java21/java)
+	private static final String VIRTUAL_EXECUTORS = "executionservices.VirtualThreadExecutors";
+
+	public static ExecutorService newIoExecutor (final String type, final int ioThreads) {
+
+		if (VIRTUAL.equals(type)) {
+			try {
+				Method method = Class.forName(VIRTUAL_EXECUTORS).getMethod("newExecutor", String.class);
+				return (ExecutorService) method.invoke(null, "io-");
+			} catch (ClassNotFoundException e) {
+				logger.warn ("Virtual threads not available (build with -P java21): using " + ioThreads + " platform threads");
+			} catch (Exception e) {
+				logger.warn ("Virtual threads not available (" + e.getClass().getSimpleName() + " - " + e.getMessage() + "): using " + ioThreads + " platform threads");
+			}
+		}
+		return Executors.newFixedThreadPool(Math.max(1, ioThreads));
+	}
+}
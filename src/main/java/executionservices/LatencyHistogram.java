@@ -0,0 +1,84 @@
+package executionservices;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies (any non negative value, i.e. microseconds) recorded concurrently without locks.
+ * Values up to 15 have their own bucket; greater values are grouped in 8 buckets per power of two, so the
+ * percentiles are within 12.5% of the recorded values. The max. is exact.
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR_BUCKETS = 16;
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = LINEAR_BUCKETS + ((63 - 4) * SUB_BUCKETS);
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public void record (final long value) {
+		long recordedValue = Math.max(0, value);
+		counts.incrementAndGet(getBucket(recordedValue));
+		count.increment();
+		sum.add(recordedValue);
+		max.accumulate(recordedValue);
+	}
+
+	public final long getCount() { return count.sum(); }
+	public final long getSum() { return sum.sum(); }
+	public final long getMax() { return max.get(); }
+
+	public final long getMean() {
+		long total = count.sum();
+		return (total > 0) ? sum.sum() / total : 0;
+	}
+
+	// Value below which the given fraction of the recorded values are (i.e. 0.99), 0 when empty
+	public final long getPercentile(final double percentile) {
+
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i=0; i<BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile * total));
+		long accumulated = 0;
+		for (int i=0; i<BUCKETS; i++) {
+			accumulated += snapshot[i];
+			if (accumulated >= rank) {
+				return Math.min(getUpperValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	private static int getBucket (final long value) {
+		if (value < LINEAR_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_BUCKETS + ((exponent - 4) * SUB_BUCKETS) + subBucket;
+	}
+
+	// Greatest value of the bucket
+	private static long getUpperValue (final int bucket) {
+		if (bucket < LINEAR_BUCKETS) {
+			return bucket;
+		}
+		int exponent = ((bucket - LINEAR_BUCKETS) / SUB_BUCKETS) + 4;
+		int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+		long lower = ((long) (SUB_BUCKETS + subBucket)) << (exponent - SUB_BUCKET_BITS);
+		return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
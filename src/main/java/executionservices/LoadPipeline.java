@@ -0,0 +1,73 @@
+package executionservices;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Two stage pipeline overlapping I/O and CPU across currency pairs:
+ *  - I/O stage: up to workerpool.ioThreads concurrent loads of the next pairs (RunnableWorkerThread.load), on platform
+ *    or virtual threads (workerpool.ioExecutor, see IoExecutors)
+ *  - calculation stage: the worker pool (sized to the cores) calculates the loaded pairs
+ * Loaded pairs waiting for a pool thread are bounded by memory (workerpool.pipelineBufferMb), not by count:
+ * an I/O thread stops prefetching until the series it has loaded fits in the buffer.
+ * Streaming pairs load nothing, so they are handed off straight away.
+ */
+public class LoadPipeline {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(LoadPipeline.class);
+
+	private final ExecutorService ioExecutor;
+	// Concurrent loads (virtual threads are not limited by the executor)
+	private final Semaphore loadPermits;
+	private final SystemThreadPoolExecutor calculationExecutor;
+	private final MemoryBudget handOffBuffer;
+
+	public LoadPipeline (final String ioExecutorType, final int ioThreads, final long bufferBytes, final SystemThreadPoolExecutor calculationExecutor) {
+		this.ioExecutor = IoExecutors.newIoExecutor(ioExecutorType, ioThreads);
+		this.loadPermits = new Semaphore(Math.max(1, ioThreads));
+		this.calculationExecutor = calculationExecutor;
+		this.handOffBuffer = new MemoryBudget(bufferBytes);
+	}
+
+	public void submit (final RunnableWorkerThread worker) {
+		ioExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					loadPermits.acquire();
+					try {
+						worker.load();
+					} finally {
+						loadPermits.release();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				long bytes = worker.getLoadedBytes();
+				try {
+					handOffBuffer.acquire(bytes);
+					worker.setHandOffBudget(handOffBuffer, bytes);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				logger.debug ("Handing off " + worker.getCurrentCurrency() + " (" + (bytes >> 10) + " KB, buffer " + (handOffBuffer.getUsed() >> 10) + " KB)");
+				calculationExecutor.execute(worker);
+			}
+		});
+	}
+
+	public void shutdown () {
+		ioExecutor.shutdown();
+		try {
+			ioExecutor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package executionservices;
+
+/**
+ * Bytes of heap shared by several tasks: acquire blocks until the bytes fit in the budget.
+ * A request greater than the whole budget is admitted when nothing else is using it (otherwise it would never run).
+ */
+public class MemoryBudget {
+
+	private final long capacity;
+	private long used = 0;
+
+	public MemoryBudget (final long capacity) {
+		this.capacity = capacity;
+	}
+
+	public synchronized void acquire (final long bytes) throws InterruptedException {
+		while (!fits(bytes)) {
+			wait();
+		}
+		used += bytes;
+	}
+
+	// Acquires the bytes only if they fit now
+	public synchronized boolean tryAcquire (final long bytes) {
+		if (!fits(bytes)) {
+			return false;
+		}
+		used += bytes;
+		return true;
+	}
+
+	public synchronized void release (final long bytes) {
+		used = Math.max(0, used - bytes);
+		notifyAll();
+	}
+
+	private boolean fits (final long bytes) {
+		return (used == 0) || (used + bytes <= capacity);
+	}
+
+	public final long getCapacity() { return this.capacity; }
+	public synchronized long getUsed() { return this.used; }
+}
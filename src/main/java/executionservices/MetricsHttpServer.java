@@ -0,0 +1,177 @@
+package executionservices;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP endpoint serving the execution metrics in Prometheus text format (GET /metrics):
+ * pool gauges, per pair progress, throughput, heap usage and load vs. calculation time.
+ * Scrapes only read counters and atomics (no locks shared with the workers) and are served by a single
+ * dispatcher thread, so scraping does not disturb the workers.
+ */
+public class MetricsHttpServer {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(MetricsHttpServer.class);
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final SystemThreadPoolExecutor executor;
+	private final ExecutionMetrics metrics = ExecutionMetrics.getInstance();
+	private HttpServer server;
+
+	// Positions processed and time of the previous scrape (current throughput)
+	private long lastProcessedPositions = 0;
+	private long lastScrapeTime = System.nanoTime();
+
+	public MetricsHttpServer (final SystemThreadPoolExecutor executor) {
+		this.executor = executor;
+	}
+
+	public void start (final int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle (final HttpExchange exchange) throws IOException {
+				try {
+					byte[] response = scrape().getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+					exchange.sendResponseHeaders(200, response.length);
+					try (OutputStream output = exchange.getResponseBody()) {
+						output.write(response);
+					}
+				} catch (Exception e) {
+					logger.error ("Exception while serving the metrics: " + e.getClass() + " - " + e.getMessage());
+					exchange.sendResponseHeaders(500, -1);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		// Default executor: requests are served by the dispatcher thread
+		server.setExecutor(null);
+		server.start();
+		logger.info ("Metrics available at http://localhost:" + server.getAddress().getPort() + "/metrics");
+	}
+
+	public void stop () {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	// Metrics in Prometheus text format
+	public synchronized String scrape () {
+
+		StringBuilder text = new StringBuilder(4096);
+
+		// Pool
+		gauge(text, "fxcalculator_pool_size", "Current number of threads in the pool", executor.getPoolSize());
+		gauge(text, "fxcalculator_pool_core_size", "Core number of threads of the pool", executor.getCorePoolSize());
+		gauge(text, "fxcalculator_pool_active_threads", "Threads executing workers", executor.getActiveCount());
+		gauge(text, "fxcalculator_pool_queued_tasks", "Workers waiting in the queue", executor.getQueue().size());
+		counter(text, "fxcalculator_pool_completed_tasks_total", "Workers completed", executor.getCompletedTaskCount());
+
+		// Totals
+		counter(text, "fxcalculator_executions_total", "Workers finished", metrics.getTotalExecutions());
+		counter(text, "fxcalculator_hist_data_loaded_total", "Historical data rates loaded", metrics.getTotalHistDataLoaded());
+		counter(text, "fxcalculator_calculations_total", "Comparisons calculated", metrics.getTotalCalculations());
+		counter(text, "fxcalculator_results_total", "Results found", metrics.getTotalResults());
+		counter(text, "fxcalculator_cached_results_total", "Results read from the result cache", metrics.getCachedResults());
+
+		// Per pair progress
+		long processedPositions = 0;
+		header(text, "fxcalculator_pair_positions_processed", "Positions (rows x scans) processed of the pair", "gauge");
+		for (PairProgress progress : metrics.getProgressList()) {
+			processedPositions += progress.getProcessedPositions();
+			sample(text, "fxcalculator_pair_positions_processed", "pair=\"" + escape(progress.getCurrency()) + "\"", progress.getProcessedPositions());
+		}
+		header(text, "fxcalculator_pair_positions_total", "Positions (rows x scans) of the pair, 0 when unknown", "gauge");
+		for (PairProgress progress : metrics.getProgressList()) {
+			sample(text, "fxcalculator_pair_positions_total", "pair=\"" + escape(progress.getCurrency()) + "\"", progress.getTotalPositions());
+		}
+		header(text, "fxcalculator_pair_phase", "Current phase of the pair", "gauge");
+		for (PairProgress progress : metrics.getProgressList()) {
+			sample(text, "fxcalculator_pair_phase", "pair=\"" + escape(progress.getCurrency()) + "\",phase=\"" + progress.getPhase() + "\"", 1);
+		}
+
+		// Throughput
+		long now = System.nanoTime();
+		double positionsPerSecond = (now > lastScrapeTime) ? (processedPositions - lastProcessedPositions) * 1e9 / (now - lastScrapeTime) : 0;
+		lastProcessedPositions = processedPositions;
+		lastScrapeTime = now;
+		gauge(text, "fxcalculator_positions_per_second", "Positions processed per second since the previous scrape", positionsPerSecond);
+		gauge(text, "fxcalculator_bars_per_second", "Bars loaded per second of loading", metrics.getBarsPerSecond());
+		gauge(text, "fxcalculator_calculations_per_second", "Comparisons per second of calculation", metrics.getCalculationsPerSecond());
+
+		// Load vs. calculation time
+		counter(text, "fxcalculator_load_seconds_total", "Time loading historical data (all the pairs)", metrics.getLoadTimeMillis() / 1000.0);
+		counter(text, "fxcalculator_calculation_seconds_total", "Time calculating (all the pairs)", metrics.getCalculationTimeMillis() / 1000.0);
+		summary(text, "fxcalculator_execution_seconds", "Worker execution time", metrics.getExecutionLatency());
+		summary(text, "fxcalculator_load_seconds", "Load time per pair", metrics.getLoadLatency());
+		summary(text, "fxcalculator_calculation_seconds", "Calculation time per pair", metrics.getCalculationLatency());
+
+		// Heap
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		gauge(text, "fxcalculator_heap_used_bytes", "Heap used", heap.getUsed());
+		gauge(text, "fxcalculator_heap_committed_bytes", "Heap committed", heap.getCommitted());
+		gauge(text, "fxcalculator_heap_max_bytes", "Max. heap", heap.getMax());
+
+		return text.toString();
+	}
+
+	private static void gauge (final StringBuilder text, final String name, final String help, final double value) {
+		header(text, name, help, "gauge");
+		sample(text, name, null, value);
+	}
+
+	private static void counter (final StringBuilder text, final String name, final String help, final double value) {
+		header(text, name, help, "counter");
+		sample(text, name, null, value);
+	}
+
+	// Summary of a histogram of microseconds (exported in seconds): p50, p99, sum and count, and the max. as a gauge (<name>_max)
+	private static void summary (final StringBuilder text, final String name, final String help, final LatencyHistogram histogram) {
+		header(text, name, help, "summary");
+		sample(text, name, "quantile=\"0.5\"", histogram.getPercentile(0.50) / 1e6);
+		sample(text, name, "quantile=\"0.99\"", histogram.getPercentile(0.99) / 1e6);
+		sample(text, name + "_sum", null, histogram.getSum() / 1e6);
+		sample(text, name + "_count", null, histogram.getCount());
+		gauge(text, name + "_max", help + " (max.)", histogram.getMax() / 1e6);
+	}
+
+	private static void header (final StringBuilder text, final String name, final String help, final String type) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample (final StringBuilder text, final String name, final String labels, final double value) {
+		text.append(name);
+		if (labels != null) {
+			text.append('{').append(labels).append('}');
+		}
+		text.append(' ');
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			text.append((long) value);
+		} else {
+			text.append(Double.toString(value));
+		}
+		text.append('\n');
+	}
+
+	private static String escape (final String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
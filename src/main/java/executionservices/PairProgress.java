@@ -0,0 +1,56 @@
+package executionservices;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a currency pair: phase and positions processed / total (rows x scans).
+ * Updated by its worker and read by the metrics endpoint without locking.
+ * Total is 0 while unknown (i.e. streaming from the database) and an estimate while streaming a file.
+ */
+public class PairProgress {
+
+	public static final String QUEUED = "queued";
+	public static final String LOADING = "loading";
+	public static final String CALCULATING = "calculating";
+	public static final String DONE = "done";
+	public static final String FAILED = "failed";
+
+	private final String currency;
+	private volatile String phase = QUEUED;
+	private volatile long totalPositions;
+	private final AtomicLong processedPositions = new AtomicLong();
+
+	public PairProgress (final String currency) {
+		this.currency = currency;
+	}
+
+	public void setPhase (final String phase) {
+		this.phase = phase;
+	}
+
+	public void setTotalPositions (final long totalPositions) {
+		this.totalPositions = totalPositions;
+	}
+
+	public void addProcessedPositions (final long positions) {
+		processedPositions.addAndGet(positions);
+	}
+
+	// Marks the pair as finished: the (estimated) total becomes the positions actually processed.
+	// A failed pair keeps its phase
+	public void done () {
+		totalPositions = processedPositions.get();
+		if (phase != FAILED) {
+			phase = DONE;
+		}
+	}
+
+	public void failed () {
+		phase = FAILED;
+	}
+
+	public final String getCurrency() { return this.currency; }
+	public final String getPhase() { return this.phase; }
+	public final long getTotalPositions() { return this.totalPositions; }
+	public final long getProcessedPositions() { return this.processedPositions.get(); }
+}
@@ -1,21 +1,34 @@
 package executionservices;
 
-import java.io.FileReader;
+import java.io.File;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.opencsv.CSVReader;
-
+import calculationservices.CalculationEngine;
+import calculationservices.CalculationEngineFactory;
+import calculationservices.StreamingCalculationEngine;
+import datamodel.CalcParameters;
 import datamodel.CalcResult;
-import datamodel.FxRate;
+import datamodel.FxRateConsumer;
+import datamodel.FxSeries;
+import resultservices.ResultsSink;
 import utils.ApplicationProperties;
+import utils.ChainEventLog;
 import utils.DatabaseUtils;
+import utils.HistoricalDataCache;
+import utils.HistoricalDataIndex;
+import utils.HistoricalDataParser;
+import utils.IncrementalState;
+import utils.ResultCache;
 import utils.GeneralUtils;
 
 public class RunnableWorkerThread implements Runnable {
@@ -27,74 +40,308 @@ public class RunnableWorkerThread implements Runnable {
 	private String currentCurrency;
 	private CountDownLatch latch;
 
-	private Map<String, List<FxRate>> historicalDataMap = new HashMap<String, List<FxRate>>();
-	private Map<String, Integer> resultsMap = new HashMap<String, Integer>();
-	private Map<String, CalcResult> calcResultsMap;
+	private Map<String, FxSeries> historicalDataMap = new HashMap<String, FxSeries>();
+	private List<CalcParameters> calcParametersList;
+	// Up / down level hits of every combination of calcParametersList (same order)
+	private List<long[]> upHitsList = new ArrayList<long[]>();
+	private List<long[]> downHitsList = new ArrayList<long[]>();
+	private List<Map<String, CalcResult>> calcResultsMaps;
 	
 	private long elapsedTimeMillis;
 	private long totalHistDataLoaded;
 	private long totalCalculations;
 	private long totalResults;
 
-
-	public RunnableWorkerThread ( final String datasource, final String currentCurrency, Map<String, CalcResult> calcResultsMap, CountDownLatch latch){
+	// State kept from the loading phase to the calculation phase
+	private boolean loaded = false;
+	private boolean exists = false;
+	private boolean streaming = false;
+	private long startTime;
+	private long histDataStartTime;
+	private long histDataStopTime;
+	private String startDate;
+	private String endDate;
+	// Date shard (see setDates): chains only start up to lastStartDate (null: up to endDate)
+	private String lastStartDate;
+	private boolean datesSet = false;
+	// Combinations whose results are not cached, their Calculation Result Maps and cache keys
+	private List<CalcParameters> pendingParametersList;
+	private List<Map<String, CalcResult>> pendingResultsMaps;
+	private List<String> pendingKeys;
+	// The historical data was read without errors: results are only cached then (a failed read is not a result)
+	private boolean historicalDataComplete = false;
+
+	// Bytes reserved in a memory budget by the pipeline (released when the calculation phase starts)
+	private MemoryBudget handOffBudget;
+	private long handOffBytes;
+	// Scheduling: submission order and estimates (-1 until estimated)
+	private static final AtomicLong sequences = new AtomicLong();
+	private final long sequence = sequences.getAndIncrement();
+	private long estimatedRows = -1;
+	private long estimatedCost = -1;
+	// Bytes reserved by the admission control (released when the calculation phase finishes)
+	private AdmissionController admission;
+	private long admissionBytes;
+
+	// Results of the pair written as soon as it completes (null: not written)
+	private ResultsSink resultsSink;
+
+	// Progress published to the metrics endpoint
+	private PairProgress progress;
+	private static final int PROGRESS_ROWS = 4096;
+
+	// calcResultsMaps contains one Calculation Result Map per combination of calcParametersList (same order)
+	public RunnableWorkerThread ( final String datasource, final String currentCurrency, final List<CalcParameters> calcParametersList, List<Map<String, CalcResult>> calcResultsMaps, CountDownLatch latch){
 		this.datasource = datasource;
 		this.currentCurrency = currentCurrency;
-		this.calcResultsMap = calcResultsMap;
+		this.calcParametersList = calcParametersList;
+		this.calcResultsMaps = calcResultsMaps;
 		this.latch = latch;
+		this.progress = ExecutionMetrics.getInstance().getProgress(currentCurrency);
 	}
 	
+	// Dates of a date shard, instead of execution.startDate / endDate. The historical data is loaded up to endDate
+	// (chains starting in the shard may end after it), but chains only start up to lastStartDate (null: up to endDate).
+	// Shards are neither cached nor streamed: streaming engines cannot stop starting chains at a given date
+	public void setDates (final String startDate, final String endDate, final String lastStartDate) {
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.lastStartDate = lastStartDate;
+		this.datesSet = true;
+	}
+
+	public void setResultsSink (final ResultsSink resultsSink) {
+		this.resultsSink = resultsSink;
+	}
+
 	@Override
 	public void run() {
 		
-		long histDataStartTime;	
-		long histDataStopTime;
-		long calculationStartTime;
-		long calculationStopTime;
+		// Pipelined executions are loaded before being submitted to the pool
+		if (!loaded) {
+			load();
+		}
+		calculate();
+	}
+
+	// Loading phase: checks the currency pair, looks up the cached results and populates the historical data
+	// (not when streaming: rates are calculated while they are read)
+	public void load() {
+
+		startTime = System.currentTimeMillis();
 
-		long startTime = System.currentTimeMillis();
-		
 		try {
 			
 			// Load required properties
-			float increase = (1+(ApplicationProperties.getFloatProperty("execution.increasePercentage"))/100);
-			float decrease = (1-(ApplicationProperties.getFloatProperty("execution.decreasePercentage"))/100);
-			int maxLevels = ApplicationProperties.getIntProperty("execution.maxLevels");
-			String startDate = ApplicationProperties.getStringProperty("execution.startDate");
-			String endDate = ApplicationProperties.getStringProperty("execution.endDate");
+			if (!datesSet) {
+				startDate = ApplicationProperties.getStringProperty("execution.startDate");
+				endDate = ApplicationProperties.getStringProperty("execution.endDate");
+			}
 
-			if (checkIfCurrencyExists (currentCurrency)) {
+			exists = checkIfCurrencyExists (currentCurrency);
+
+			if (exists) {
+
+				// Combinations whose results are not cached (all of them when the result cache is disabled)
+				pendingParametersList = calcParametersList;
+				pendingResultsMaps = calcResultsMaps;
+				pendingKeys = null;
+
+				// Shards and chain events are always calculated
+				if (ResultCache.isEnabled() && lastStartDate == null && !ChainEventLog.isEnabled()) {
+					String fingerprint = ResultCache.getFingerprint(datasource, currentCurrency, startDate, endDate);
+					if (fingerprint != null) {
+						pendingParametersList = new ArrayList<CalcParameters>();
+						pendingResultsMaps = new ArrayList<Map<String, CalcResult>>();
+						pendingKeys = new ArrayList<String>();
+						// Cached results are reported on their own, not mixed with the totals calculated in this run
+						long cachedResults = 0;
+
+						for (int i=0; i<calcParametersList.size(); i++) {
+							CalcParameters params = calcParametersList.get(i);
+							String key = ResultCache.getKey(currentCurrency, fingerprint, startDate, endDate, params);
+							CalcResult calcResult = ResultCache.get(key, currentCurrency, params);
+							if (calcResult != null) {
+								cachedResults += calcResult.getTotalResults();
+								calcResultsMaps.get(i).put(currentCurrency, calcResult);
+							} else {
+								pendingParametersList.add(params);
+								pendingResultsMaps.add(calcResultsMaps.get(i));
+								pendingKeys.add(key);
+							}
+						}
+						int cachedCombinations = calcParametersList.size() - pendingParametersList.size();
+						ExecutionMetrics.getInstance().recordCachedResults(cachedCombinations, cachedResults);
+						logger.info ("Cached results for " + currentCurrency + ": " + cachedCombinations + " of " + calcParametersList.size() + " combinations");
+					}
+				}
 
-				logger.info ("Populating historical data for " + currentCurrency);
-				histDataStartTime = System.currentTimeMillis();
-				totalHistDataLoaded = populateHistoricalFxData(currentCurrency,startDate,endDate);
-				histDataStopTime = System.currentTimeMillis();
-				logger.info ("Historical data populated for " + currentCurrency);
+				streaming = isStreaming() && (lastStartDate == null) && !ChainEventLog.isEnabled();
 
-				logger.info ("Starting calculations for " + currentCurrency);
-				calculationStartTime = System.currentTimeMillis();
-				totalCalculations = executeCalculations (currentCurrency, increase, decrease, maxLevels);
-				calculationStopTime = System.currentTimeMillis();
+				if (!pendingParametersList.isEmpty() && !streaming) {
+					logger.info ("Populating historical data for " + currentCurrency);
+					progress.setPhase(PairProgress.LOADING);
+					histDataStartTime = System.currentTimeMillis();
+					totalHistDataLoaded = populateHistoricalFxData(currentCurrency,startDate,endDate);
+					histDataStopTime = System.currentTimeMillis();
+					logger.info ("Historical data populated for " + currentCurrency);
+				}
+			}
+		} catch (Exception e) { 
+			e.printStackTrace(); 
+			exists = false;
+			progress.failed();
+		}
+		loaded = true;
+	}
+
+	// Calculation phase: calculates the pending combinations (streaming the historical data when required)
+	// and populates their Calculation Result Maps
+	public void calculate() {
 
-				totalResults = resultsMap.size();
+		long calculationStartTime;
+		long calculationStopTime;
 
-				logger.debug ("Populating Calculation Result Map for " + currentCurrency);
-				// Populates the Calculation Result Map
-				calcResultsMap.put(currentCurrency, new CalcResult(currentCurrency, increase, decrease, maxLevels, histDataStartTime, histDataStopTime, totalHistDataLoaded, calculationStartTime, calculationStopTime, totalCalculations, resultsMap));
+		if (handOffBudget != null) {
+			handOffBudget.release(handOffBytes);
+			handOffBudget = null;
+		}
 
-				logger.info ("Finished calculations for " + currentCurrency + "[" + totalCalculations + "] in " + (calculationStopTime - calculationStartTime) + " ms");
+		try {
+			
+			if (exists) {
+
+				if (!pendingParametersList.isEmpty()) {
+					if (streaming) {
+						// Historical data is calculated while it is read, so both times are the same
+						logger.info ("Streaming historical data and calculations for " + currentCurrency);
+						progress.setPhase(PairProgress.CALCULATING);
+						histDataStartTime = System.currentTimeMillis();
+						calculationStartTime = histDataStartTime;
+						totalCalculations = streamCalculations (currentCurrency, startDate, endDate, pendingParametersList);
+						histDataStopTime = System.currentTimeMillis();
+						calculationStopTime = histDataStopTime;
+					} else {
+						logger.info ("Starting calculations for " + currentCurrency);
+						progress.setPhase(PairProgress.CALCULATING);
+						calculationStartTime = System.currentTimeMillis();
+						totalCalculations = executeCalculations (currentCurrency, pendingParametersList);
+						calculationStopTime = System.currentTimeMillis();
+					}
+
+					logger.debug ("Populating Calculation Result Maps for " + currentCurrency);
+					// Populates the Calculation Result Map of every combination
+					for (int i=0; i<pendingParametersList.size(); i++) {
+						CalcParameters params = pendingParametersList.get(i);
+						CalcResult calcResult = new CalcResult(currentCurrency, params.getIncrease(), params.getDecrease(), params.getMaxLevels(), histDataStartTime, histDataStopTime, totalHistDataLoaded, calculationStartTime, calculationStopTime, totalCalculations, upHitsList.get(i), downHitsList.get(i));
+						totalResults += calcResult.getTotalResults();
+						pendingResultsMaps.get(i).put(currentCurrency, calcResult);
+						if (pendingKeys != null && historicalDataComplete) {
+							ResultCache.put(pendingKeys.get(i), calcResult);
+						}
+						// Load and calculation times are shared by all the combinations of the pair
+						if (i == 0) {
+							ExecutionMetrics.getInstance().recordCalcResult(calcResult);
+						}
+					}
+
+					if (pendingKeys != null && !historicalDataComplete) {
+						logger.warn ("Results of " + currentCurrency + " not cached: the historical data could not be read");
+					}
+
+					logger.info ("Finished calculations for " + currentCurrency + "[" + totalCalculations + "] in " + (calculationStopTime - calculationStartTime) + " ms");
+				}
 			} else {
 				logger.error("No available data for " + currentCurrency);
 			}
 
-			latch.countDown();
-			
-			long stopTime = System.currentTimeMillis(); 
-			elapsedTimeMillis = stopTime - startTime;
-			
 		} catch (Exception e) { 
 			e.printStackTrace(); 
+			progress.failed();
+		} finally {
+			// Also on errors, so the pair is never reported as still running
+			progress.done();
+			// The historical data is not needed anymore
+			historicalDataMap.clear();
+			if (admission != null) {
+				admission.release(admissionBytes);
+				admission = null;
+			}
+
+			long stopTime = System.currentTimeMillis(); 
+			elapsedTimeMillis = stopTime - startTime;
+
+			// Pairs without data are written too (null results, written as zeros)
+			if (resultsSink != null) {
+				resultsSink.write(currentCurrency, getCalcResults());
+			}
+
+			// Always counted down (even on errors), so the application never waits for a failed worker
+			latch.countDown();
+		}
+	}
+
+	// Results of the pair, one per combination (null when not available)
+	private CalcResult[] getCalcResults () {
+		CalcResult[] calcResults = new CalcResult[calcResultsMaps.size()];
+		for (int i=0; i<calcResults.length; i++) {
+			calcResults[i] = calcResultsMaps.get(i).get(currentCurrency);
 		}
+		return calcResults;
+	}
+
+	// Historical data is calculated while it is read (not kept in memory)
+	private static boolean isStreaming () {
+		return "streaming".equals(ApplicationProperties.getStringProperty("execution.calculationEngine")) || IncrementalState.isEnabled();
+	}
+
+	// Estimated rows of the pair, before loading it (estimated once): positions from the cache header, rows of the
+	// table or rows estimated from the file size. 0 without data
+	public long estimateRows () {
+
+		if (estimatedRows < 0) {
+			long rows = 0;
+
+			if ("database".equals(datasource)) {
+				String startDate = ApplicationProperties.getStringProperty("execution.startDate");
+				String endDate = ApplicationProperties.getStringProperty("execution.endDate");
+				rows = Math.max(0, DatabaseUtils.getHistoricalRatesCount(currentCurrency, startDate, endDate));
+			} else if (HistoricalDataCache.isEnabled() && HistoricalDataCache.isValid(currentCurrency)) {
+				rows = Math.max(0, HistoricalDataCache.getPositions(currentCurrency));
+			} else {
+				File file = HistoricalDataCache.getSourceFile(currentCurrency);
+				rows = file.isFile() ? HistoricalDataParser.getEstimatedRows(file) : 0;
+			}
+			estimatedRows = rows;
+		}
+		return estimatedRows;
+	}
+
+	// Estimated heap needed by the historical data of the pair. Series read from the database or a file may double
+	// their capacity while growing. Streaming keeps no series (0)
+	public long estimateFootprint () {
+
+		if (isStreaming()) {
+			return 0;
+		}
+
+		boolean cached = !"database".equals(datasource) && HistoricalDataCache.isEnabled() && HistoricalDataCache.isValid(currentCurrency);
+		return estimateRows() * FxSeries.BYTES_PER_RATE * (cached ? 1 : 2);
+	}
+
+	// Estimated cost of the pair (bars x expected scan length x scans): every position is compared with the next ones
+	// up to the max. horizon (bars or minutes, about one bar per minute) or up to the end of the series
+	public long estimateCost () {
+
+		long rows = estimateRows();
+		long scanLength = rows;
+
+		CalcParameters params = calcParametersList.get(0);
+		if (params.isHorizonBounded()) {
+			scanLength = Math.min(rows, params.getMaxHorizon());
+		}
+		estimatedCost = rows * Math.max(1, scanLength) * getScans(calcParametersList).size();
+		return estimatedCost;
 	}
 
 	public boolean checkIfCurrencyExists (final String currentCurrency) {
@@ -109,66 +356,204 @@ public class RunnableWorkerThread implements Runnable {
 		return exists;
 	}
 
-	// Executes calculations
-    public long executeCalculations (final String currentCurrency, float increase, float decrease, int maxLevels) {
+	// Executes calculations for every combination of parameters using the configured calculation engine [loop | indexed] and parallelism
+	// The series and the engine (i.e. its range index) are shared by all the combinations
+	// Combinations only differing in max. levels are calculated once with the highest max. levels:
+	// the counts of the lower levels do not depend on max. levels
+    public long executeCalculations (final String currentCurrency, final List<CalcParameters> calcParametersList) {
     	
     	long totalCalculations = 0;
     	
+		for (CalcParameters params : calcParametersList) {
+			upHitsList.add(new long[params.getMaxLevels()+1]);
+			downHitsList.add(new long[params.getMaxLevels()+1]);
+		}
+
 		if (historicalDataMap.containsKey(currentCurrency)) {
+			String engineName = ApplicationProperties.getStringProperty("execution.calculationEngine");
+			int parallelism = ApplicationProperties.getIntProperty("execution.parallelism");
+			FxSeries series = historicalDataMap.get(currentCurrency);
+			if ("streaming".equals(engineName)) {
+				// Date shards and chain events are not streamed
+				engineName = "indexed";
+			}
+			CalculationEngine engine = CalculationEngineFactory.getEngine(engineName, series, parallelism);
+			// Last starting position (excluded)
+			int toPosition = (lastStartDate == null) ? series.size() : series.getPosition(GeneralUtils.getEpochMinutes(lastStartDate, "00:00") + 1440);
+			if (lastStartDate != null) {
+				// A shard only counts the rows of its own range: the rows after it are counted by the next shards
+				totalHistDataLoaded = toPosition;
+			}
 
-			for (FxRate originalFxRate : historicalDataMap.get(currentCurrency)) {
-				
-				int positionId = originalFxRate.getPositionId();
-				float opening = originalFxRate.getOpen();
-				
-				logger.debug ("Processing " + currentCurrency + "-" + positionId);
-				
-				FxRate targetFxRate = null;
-				String previousFound = "";
-				
-				int indexUp = 1;
-				int indexDown = 1;
-
-				for (int i=positionId+1; i<historicalDataMap.get(currentCurrency).size(); i++) {
-					targetFxRate = historicalDataMap.get(currentCurrency).get(i);
-					
-					logger.debug ("Comparing against " + targetFxRate.getCurrencyPair() + "-" + targetFxRate.getPositionId());
-
-					if ((targetFxRate.getHigh() > (opening * increase)) && (indexUp <= maxLevels)) {
-						if (("DOWN").equals(previousFound)) {
-							break;
-						}
+			logger.debug ("Calculation engine for " + currentCurrency + ": " + engine.getClass().getSimpleName());
+
+			List<CalcParameters> scans = getScans(calcParametersList);
+			progress.setTotalPositions((long) toPosition * scans.size());
+
+			for (CalcParameters scan : scans) {
+				long[] scanUpHits = new long[scan.getMaxLevels()+1];
+				long[] scanDownHits = new long[scan.getMaxLevels()+1];
+				ChainEventLog events = ChainEventLog.isEnabled() ? ChainEventLog.create(currentCurrency, startDate, endDate, scan) : null;
+				try {
+					totalCalculations += engine.executeCalculations(0, toPosition, scan, scanUpHits, scanDownHits, events);
+				} finally {
+					// Also on errors: the writer thread and the files are released
+					if (events != null) {
+						events.close();
+					}
+				}
+				setScanHits(calcParametersList, scan, scanUpHits, scanDownHits);
+				progress.addProcessedPositions(toPosition);
+			}
+		}
+		return totalCalculations;
+    }
 
-						if (resultsMap.containsKey("UP-"+indexUp)) {
-							resultsMap.put("UP-"+indexUp,resultsMap.get("UP-"+indexUp)+1);
-						} else {
-							resultsMap.put("UP-"+indexUp,1);
-						}
+	// Streams the historical data through one streaming engine per scan (as in executeCalculations), without keeping the series
+	// Returns the total calculations. The number of rates read is kept in totalHistDataLoaded
+    public long streamCalculations (final String currentCurrency, final String startDate, final String endDate, final List<CalcParameters> calcParametersList) {
 
-						previousFound = "UP";
-						opening = opening * increase;
-						indexUp++;
-					} else if ((targetFxRate.getLow() < (opening * decrease)) && (indexDown <= maxLevels)) {
-						if (("UP").equals(previousFound)) {
-							break;
-						}
+    	long totalCalculations = 0;
 
-						if (resultsMap.containsKey("DOWN-"+indexDown)) {
-							resultsMap.put("DOWN-"+indexDown,resultsMap.get("DOWN-"+indexDown)+1);
-						} else {
-							resultsMap.put("DOWN-"+indexDown,1);
-						}
+		for (CalcParameters params : calcParametersList) {
+			upHitsList.add(new long[params.getMaxLevels()+1]);
+			downHitsList.add(new long[params.getMaxLevels()+1]);
+		}
 
-						previousFound = "DOWN";
-						opening = opening * decrease;
-						indexDown++;
-					}
-					totalCalculations++;
+		final List<CalcParameters> scans = getScans(calcParametersList);
+		boolean incremental = IncrementalState.isEnabled() && !"database".equals(datasource);
+
+		// Incremental runs resume the engines of the previous run, when possible
+		IncrementalState state = incremental ? IncrementalState.read(currentCurrency, startDate, endDate, scans) : null;
+
+		final List<StreamingCalculationEngine> engines = new ArrayList<StreamingCalculationEngine>();
+		if (state != null) {
+			engines.addAll(state.getEngines());
+		} else {
+			for (CalcParameters scan : scans) {
+				engines.add(new StreamingCalculationEngine(scan));
+			}
+		}
+
+		// Total positions estimated from the file size (unknown for the database)
+		if (!"database".equals(datasource)) {
+			progress.setTotalPositions((long) HistoricalDataParser.getEstimatedRows(HistoricalDataCache.getSourceFile(currentCurrency)) * scans.size());
+		}
+
+		final int[] pendingRows = new int[1];
+		FxRateConsumer consumer = new FxRateConsumer() {
+			@Override
+			public void add (final int timestamp, final float open, final float high, final float low, final float close) {
+				for (StreamingCalculationEngine engine : engines) {
+					engine.add(timestamp, open, high, low, close);
+				}
+				// Progress is published every PROGRESS_ROWS rows, not to slow down the engines
+				if (++pendingRows[0] == PROGRESS_ROWS) {
+					progress.addProcessedPositions((long) PROGRESS_ROWS * engines.size());
+					pendingRows[0] = 0;
 				}
 			}
+		};
+
+		long rows;
+		if (incremental) {
+			rows = resumeHistoricalDataFile(currentCurrency, startDate, endDate, state, scans, engines, consumer);
+		} else {
+			rows = streamHistoricalFxData(currentCurrency, startDate, endDate, consumer);
+		}
+		// On errors, the rates already streamed have reached the engines: the hits are partial
+		historicalDataComplete = (rows >= 0);
+		totalHistDataLoaded = Math.max(0, rows);
+
+		progress.addProcessedPositions((long) pendingRows[0] * engines.size());
+
+		for (int i=0; i<engines.size(); i++) {
+			totalCalculations += engines.get(i).getTotalCalculations();
+			setScanHits(calcParametersList, scans.get(i), engines.get(i).getUpHits(), engines.get(i).getDownHits());
+			logger.debug ("  " + currentCurrency + " -> " + scans.get(i).getScanKey() + " max. open chains " + engines.get(i).getMaxOpenChains());
 		}
 		return totalCalculations;
     }
+
+	// Passes the rows of the file appended since the saved state (or every row, without state) to the consumer,
+	// and saves the new state. Returns the total number of rows calculated (including the previous runs), -1 on errors
+	private long resumeHistoricalDataFile (final String currentCurrency, final String startDate, final String endDate, final IncrementalState state, final List<CalcParameters> scans, final List<StreamingCalculationEngine> engines, final FxRateConsumer consumer) {
+
+		long totalRows = -1;
+
+		String historicalDataSeparator = ApplicationProperties.getStringProperty("main.historicalDataSeparator");
+
+		File file = HistoricalDataCache.getSourceFile(currentCurrency);
+
+		try {
+			long startOffset = 0;
+			int startLineNumber = 1;
+			long previousRows = 0;
+
+			// Rows appended while running are left for the next run
+			long endOffset = IncrementalState.getCompleteLength(file);
+
+			if (state != null) {
+				startOffset = state.getFileOffset();
+				startLineNumber = state.getLineNumber();
+				previousRows = state.getTotalRows();
+			} else {
+				HistoricalDataIndex index = (startDate != null && HistoricalDataIndex.isEnabled()) ? HistoricalDataIndex.get(currentCurrency) : null;
+				if (index != null && index.isSeekable()) {
+					long offset = index.getOffset(startDate);
+					if (offset >= 0 && offset < endOffset) {
+						startOffset = offset;
+						startLineNumber = index.getLineNumber(startDate);
+					} else if (index.getIndexedLength() == endOffset) {
+						// No complete row from startDate yet: the calculation starts after the last complete row
+						startOffset = endOffset;
+						startLineNumber = index.getNextLineNumber();
+					}
+					// Otherwise (rows appended since the index was read) the whole file is read
+				}
+			}
+
+			logger.info("Calculating historical data file (" + file.getPath() + ") from offset " + startOffset + " to " + endOffset);
+
+			HistoricalDataParser parser = new HistoricalDataParser(historicalDataSeparator.charAt(0), false);
+			long rows = parser.parse(file, startDate, endDate, startOffset, endOffset, startLineNumber, consumer);
+			totalRows = previousRows + rows;
+
+			IncrementalState.write(currentCurrency, startDate, endDate, scans, engines, state, endOffset, parser.getLineNumber() + 1, totalRows);
+			logger.info (currentCurrency + " -> " + rows + " new records calculated (" + totalRows + " in total)");
+
+		} catch (ParseException ex) {
+			logger.error ("Exception in file " + file.getPath() + " - line " + ex.getErrorOffset() + " - " + ex.getMessage());
+			totalRows = -1;
+		} catch (Exception ex) {
+			logger.error ("Exception in file " + file.getPath() + " - " + ex.getClass() + " - " + ex.getMessage());
+			totalRows = -1;
+		}
+		return totalRows;
+	}
+
+	// Combinations only differing in max. levels are calculated once with the highest max. levels
+	private static List<CalcParameters> getScans (final List<CalcParameters> calcParametersList) {
+		Map<String, CalcParameters> scans = new LinkedHashMap<String, CalcParameters>();
+		for (CalcParameters params : calcParametersList) {
+			CalcParameters scan = scans.get(params.getScanKey());
+			if (scan == null || scan.getMaxLevels() < params.getMaxLevels()) {
+				scans.put(params.getScanKey(), params);
+			}
+		}
+		return new ArrayList<CalcParameters>(scans.values());
+	}
+
+	// The counts of a lower max. levels are the first levels of the scan
+	private void setScanHits (final List<CalcParameters> calcParametersList, final CalcParameters scan, final long[] scanUpHits, final long[] scanDownHits) {
+		for (int i=0; i<calcParametersList.size(); i++) {
+			CalcParameters params = calcParametersList.get(i);
+			if (params.getScanKey().equals(scan.getScanKey())) {
+				System.arraycopy(scanUpHits, 0, upHitsList.get(i), 0, params.getMaxLevels()+1);
+				System.arraycopy(scanDownHits, 0, downHitsList.get(i), 0, params.getMaxLevels()+1);
+			}
+		}
+	}
 	
 	// Populates historical data and puts the objects into historical data list)
     // Depending on the datasource parameter, data could be retrieved from database (mysql) or files
@@ -182,53 +567,45 @@ public class RunnableWorkerThread implements Runnable {
     	if ("database".equals(datasource)) {
     		// Populate historical data from mysql database
     		
-    		historicalDataMap = DatabaseUtils.getHistoricalRates(currentCurrency, startDate, endDate);
+    		FxSeries series = DatabaseUtils.getHistoricalRates(currentCurrency, startDate, endDate);
+    		historicalDataComplete = (series != null);
     		
-    		if (historicalDataMap != null && historicalDataMap.size() > 0) {
-    			// There should be only 1 record in the map corresponding to the currentCurrency
-   	            logger.info (currentCurrency + " -> total records loaded " + historicalDataMap.get(currentCurrency).size());
+    		if (series != null && series.size() > 0) {
+    			historicalDataMap.put(currentCurrency, series);
+   	            logger.info (currentCurrency + " -> total records loaded " + series.size());
     		}
     	} else {
+    		// Populate historical data from the binary cache when enabled (rebuilt from the file if stale or unreadable)
+
+    		FxSeries series = null;
+
+    		if (HistoricalDataCache.isEnabled()) {
+    			boolean rebuild = true;
+    			if (HistoricalDataCache.isValid(currentCurrency)) {
+    				try {
+    					series = HistoricalDataCache.read(currentCurrency, startDate, endDate);
+    					rebuild = false;
+    				} catch (Exception ex) {
+    					logger.error ("Exception while reading the historical data cache for " + currentCurrency + " (rebuilt from the file) - " + ex.getClass() + " - " + ex.getMessage());
+    				}
+    			}
+    			if (rebuild) {
+    				FxSeries fullSeries = readHistoricalDataFile(currentCurrency, null, null);
+    				if (fullSeries != null) {
+    					HistoricalDataCache.write(fullSeries, HistoricalDataCache.getSourceFile(currentCurrency));
+    					series = fullSeries.subSeries(fullSeries.getPosition(GeneralUtils.getEpochMinutes(startDate, "00:00")), fullSeries.getPosition(GeneralUtils.getEpochMinutes(endDate, "00:00") + 1440));
+    				}
+    			}
+    		} else {
+    			series = readHistoricalDataFile(currentCurrency, startDate, endDate);
+    		}
+    		// Null when neither the cache nor the file could be read
+    		historicalDataComplete = (series != null);
 
-   	    	int totalCounter = 0;
-   	    	int lineNumber = 0;
-
-			String historicalDataPath = ApplicationProperties.getStringProperty("main.historicalDataPath");
-			String historicalDataFileExtension = ApplicationProperties.getStringProperty("main.historicalDataFileExtension");
-			String historicalDataSeparator = ApplicationProperties.getStringProperty("main.historicalDataSeparator");
-			int printAfter = ApplicationProperties.getIntProperty("test.printAfter");
-
-			String fileName = historicalDataPath + currentCurrency + historicalDataFileExtension;
-    		
-        	logger.info("Populating historical data from file (" + fileName + "). Fields separated by " + historicalDataSeparator.charAt(0));
-        	
-        	try {
-        		CSVReader reader = new CSVReader(new FileReader(fileName), historicalDataSeparator.charAt(0));
-    	        String [] nextLine;
-    	        while ((nextLine = reader.readNext()) != null) {
-    	        	
-    	        	FxRate fxRate = new FxRate (currentCurrency,nextLine,totalCounter,startDate,endDate);
-    	        	
-    	        	// Check if the fxRate has been created or excluded due to the date filtering
-    	        	if (currentCurrency.equals(fxRate.getCurrencyPair())) {
-    					if (!historicalDataMap.containsKey(currentCurrency)) {
-    						historicalDataMap.put(currentCurrency, new ArrayList<FxRate>());							
-    					}
-    					(historicalDataMap.get(currentCurrency)).add(fxRate);
-
-    					if (totalCounter%printAfter == 0) {
-        		        	logger.debug ("  " + currentCurrency + " -> loaded " + totalCounter + " records so far");
-        				}
-    					totalCounter++;
-    	        	}
-    	        	lineNumber++;
-    	        }
-    	        logger.info (currentCurrency + " -> total records loaded " + totalCounter);
-    	        reader.close();
-    	    	
-        	} catch (Exception ex) {
-        		logger.error ("Exception in file " + fileName + " - line " + lineNumber + " - " + ex.getClass() + " - " + ex.getMessage());
-        	}
+    		if (series != null && series.size() > 0) {
+    			historicalDataMap.put(currentCurrency, series);
+    			logger.info (currentCurrency + " -> total records loaded " + series.size());
+    		}
     	}
     	
     	if (historicalDataMap.containsKey(currentCurrency)) {
@@ -238,6 +615,115 @@ public class RunnableWorkerThread implements Runnable {
     	return result;
     }
 
+	// Passes the historical data to the consumer one rate at a time: from the database, the binary cache (when enabled
+	// and valid, as it cannot be rebuilt without the whole series) or the file. Returns the number of rates, -1 on errors
+	// A truncated cache is detected before streaming any rate: it is removed (rebuilt by the next load) and the file streamed
+	private long streamHistoricalFxData (final String currentCurrency, final String startDate, final String endDate, final FxRateConsumer consumer) {
+
+		long rows = -1;
+		boolean fromFile = true;
+
+		if ("database".equals(datasource)) {
+			rows = DatabaseUtils.getHistoricalRates(currentCurrency, startDate, endDate, consumer);
+			fromFile = false;
+		} else if (HistoricalDataCache.isEnabled() && HistoricalDataCache.isValid(currentCurrency)) {
+			try {
+				rows = HistoricalDataCache.read(currentCurrency, startDate, endDate, consumer);
+				fromFile = false;
+			} catch (Exception ex) {
+				logger.error ("Exception while reading the historical data cache for " + currentCurrency + " (streamed from the file) - " + ex.getClass() + " - " + ex.getMessage());
+				HistoricalDataCache.delete(currentCurrency);
+			}
+		}
+		if (fromFile) {
+			rows = readHistoricalDataFile(currentCurrency, startDate, endDate, consumer);
+		}
+
+		logger.info (currentCurrency + " -> total records streamed " + rows);
+		return rows;
+	}
+
+	// Reads the historical data file of the currency pair, filtered by startDate and endDate (no filtering when null)
+	// Returns null if the file cannot be read
+	private FxSeries readHistoricalDataFile (final String currentCurrency, final String startDate, final String endDate) {
+
+		FxSeries series = (startDate == null) ? new FxSeries(currentCurrency, HistoricalDataParser.getEstimatedRows(HistoricalDataCache.getSourceFile(currentCurrency))) : new FxSeries(currentCurrency);
+
+		if (readHistoricalDataFile(currentCurrency, startDate, endDate, series) < 0) {
+			return null;
+		}
+		series.trimToSize();
+		return series;
+	}
+
+	// Reads the rows of the historical data file within startDate and endDate (no filtering when null) into the consumer
+	// Returns the number of rows read, or -1 if the file cannot be read
+	private long readHistoricalDataFile (final String currentCurrency, final String startDate, final String endDate, final FxRateConsumer consumer) {
+
+		long rows = -1;
+
+		String historicalDataSeparator = ApplicationProperties.getStringProperty("main.historicalDataSeparator");
+
+		File file = HistoricalDataCache.getSourceFile(currentCurrency);
+
+		logger.info("Populating historical data from file (" + file.getPath() + "). Fields separated by " + historicalDataSeparator.charAt(0));
+
+		try {
+			HistoricalDataIndex index = (startDate != null && HistoricalDataIndex.isEnabled()) ? HistoricalDataIndex.get(currentCurrency) : null;
+
+			if (index != null && index.isSeekable()) {
+				// Seeks to the first row of startDate and stops after endDate
+				long startOffset = index.getOffset(startDate);
+				if (startOffset < 0) {
+					rows = 0;
+				} else {
+					rows = HistoricalDataParser.parse(file, historicalDataSeparator.charAt(0), startDate, endDate, startOffset, index.getLineNumber(startDate), true, consumer);
+				}
+			} else {
+				rows = HistoricalDataParser.parse(file, historicalDataSeparator.charAt(0), startDate, endDate, 0, 1, false, consumer);
+			}
+			logger.debug ("  " + currentCurrency + " -> loaded " + rows + " records");
+
+		} catch (ParseException ex) {
+			logger.error ("Exception in file " + file.getPath() + " - line " + ex.getErrorOffset() + " - " + ex.getMessage());
+			rows = -1;
+		} catch (Exception ex) {
+			logger.error ("Exception in file " + file.getPath() + " - " + ex.getClass() + " - " + ex.getMessage());
+			rows = -1;
+		}
+		return rows;
+	}
+
+	// Approximate heap used by the loaded historical data
+	public long getLoadedBytes () {
+		long bytes = 0;
+		for (FxSeries series : historicalDataMap.values()) {
+			bytes += series.getSizeInBytes();
+		}
+		return bytes;
+	}
+
+	// The bytes are released from the budget when the calculation phase starts
+	public void setHandOffBudget (final MemoryBudget handOffBudget, final long handOffBytes) {
+		this.handOffBudget = handOffBudget;
+		this.handOffBytes = handOffBytes;
+	}
+
+	// The bytes are released from the admission control when the calculation phase finishes
+	public void setAdmission (final AdmissionController admission, final long admissionBytes) {
+		this.admission = admission;
+		this.admissionBytes = admissionBytes;
+	}
+
+	public long getSequence () {
+		return this.sequence;
+	}
+	public long getEstimatedCost () {
+		return this.estimatedCost;
+	}
+	public String getCurrentCurrency () {
+		return this.currentCurrency;
+	}
 	public long getTotalResutls () {
 		return this.totalResults;
 	}
@@ -0,0 +1,27 @@
+package executionservices;
+
+import java.util.Comparator;
+
+/**
+ * Largest first order of the workers: highest estimated cost first (RunnableWorkerThread.estimateCost),
+ * then submission order. Workers not estimated yet (and other tasks) go after the estimated ones.
+ */
+public class WorkerCostComparator implements Comparator<Runnable> {
+
+	@Override
+	public int compare (final Runnable first, final Runnable second) {
+		int result = Long.compare(getCost(second), getCost(first));
+		if (result == 0) {
+			result = Long.compare(getSequence(first), getSequence(second));
+		}
+		return result;
+	}
+
+	private static long getCost (final Runnable task) {
+		return (task instanceof RunnableWorkerThread) ? ((RunnableWorkerThread) task).getEstimatedCost() : -1;
+	}
+
+	private static long getSequence (final Runnable task) {
+		return (task instanceof RunnableWorkerThread) ? ((RunnableWorkerThread) task).getSequence() : Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,80 @@
+package resultservices;
+
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datamodel.CalcResult;
+
+/**
+ * Writes the results through another sink in a background thread, so formatting and writing do not delay
+ * the workers (or the main thread). Pairs are written in the order they are received.
+ * close waits until everything received has been written.
+ */
+public class AsyncResultsSink implements ResultsSink {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(AsyncResultsSink.class);
+
+	private final ResultsSink sink;
+	private final BlockingQueue<Runnable> pendingWrites = new LinkedBlockingQueue<Runnable>();
+	private final Thread writerThread;
+	private volatile boolean closed = false;
+
+	public AsyncResultsSink (final ResultsSink sink) {
+		this.sink = sink;
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writePending();
+			}
+		}, "results-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	@Override
+	public void write (final String currency, final CalcResult[] calcResults) {
+		pendingWrites.add(new Runnable() {
+			@Override
+			public void run() {
+				sink.write(currency, calcResults);
+			}
+		});
+	}
+
+	@Override
+	public void close (final String executionTotals) {
+		pendingWrites.add(new Runnable() {
+			@Override
+			public void run() {
+				sink.close(executionTotals);
+				closed = true;
+			}
+		});
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writePending () {
+		while (!closed) {
+			try {
+				pendingWrites.take().run();
+			} catch (InterruptedException e) {
+				logger.error ("Results writer interrupted: " + pendingWrites.size() + " writes pending");
+				return;
+			} catch (Exception e) {
+				logger.error ("Exception while writing the results: " + e.getClass() + " - " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public Path getPath() { return sink.getPath(); }
+}
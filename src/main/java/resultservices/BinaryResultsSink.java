@@ -0,0 +1,71 @@
+package resultservices;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import datamodel.CalcParameters;
+import datamodel.CalcResult;
+
+/**
+ * Compact binary results (.bin), written with DataOutputStream (big endian):
+ *  - header: MAGIC, VERSION, number of combinations and, per combination, increase %, decrease % (floats) and max. levels
+ *  - one record per pair: PAIR, currency (UTF) and, per combination, max. levels of its result (0 without data)
+ *    followed by the up hits column and the down hits column (levels 1 to max. levels, longs)
+ *  - END
+ * Hits are stored by column (every up hit, then every down hit), so they are read straight into arrays.
+ */
+public class BinaryResultsSink extends FileResultsSink {
+
+	public static final int MAGIC = 0x46585253; // FXRS
+	public static final int VERSION = 1;
+	public static final byte PAIR = 1;
+	public static final byte END = 0;
+
+	private DataOutputStream data;
+
+	public BinaryResultsSink (final Path path, final List<CalcParameters> calcParametersList) {
+		super(path, calcParametersList);
+	}
+
+	@Override
+	protected OutputStream wrap (final OutputStream output) throws IOException {
+		data = new DataOutputStream(output);
+		return data;
+	}
+
+	@Override
+	protected void writeHeader (final OutputStream output, final String executionParams) throws IOException {
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(calcParametersList.size());
+		for (CalcParameters params : calcParametersList) {
+			data.writeFloat(params.getIncreasePercentage());
+			data.writeFloat(params.getDecreasePercentage());
+			data.writeInt(params.getMaxLevels());
+		}
+	}
+
+	@Override
+	protected void writeResults (final OutputStream output, final String currency, final CalcResult[] calcResults) throws IOException {
+		data.writeByte(PAIR);
+		data.writeUTF(currency);
+		for (CalcResult calcResult : calcResults) {
+			int maxLevels = (calcResult != null) ? calcResult.getmaxLevels() : 0;
+			data.writeInt(maxLevels);
+			for (int level=1; level<=maxLevels; level++) {
+				data.writeLong(calcResult.getUpHits(level));
+			}
+			for (int level=1; level<=maxLevels; level++) {
+				data.writeLong(calcResult.getDownHits(level));
+			}
+		}
+	}
+
+	@Override
+	protected void writeFooter (final OutputStream output, final String executionTotals) throws IOException {
+		data.writeByte(END);
+	}
+}
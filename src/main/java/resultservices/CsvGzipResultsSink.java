@@ -0,0 +1,63 @@
+package resultservices;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import datamodel.CalcParameters;
+import datamodel.CalcResult;
+
+/**
+ * Gzip compressed CSV results (.csv.gz), one row per pair, combination and level (no parameters or totals):
+ * currency,increase_percentage,decrease_percentage,max_levels,level,up,down,total,percentage
+ * Percentage of the total of the level over the total of level 1, rounded to 2 decimals.
+ * Flushes are synchronous, so the rows of the completed pairs can be read while the run goes on.
+ */
+public class CsvGzipResultsSink extends FileResultsSink {
+
+	private static final String HEADER = "currency,increase_percentage,decrease_percentage,max_levels,level,up,down,total,percentage";
+
+	public CsvGzipResultsSink (final Path path, final List<CalcParameters> calcParametersList) {
+		super(path, calcParametersList);
+	}
+
+	@Override
+	protected OutputStream wrap (final OutputStream output) throws IOException {
+		return new GZIPOutputStream(output, 64 * 1024, true);
+	}
+
+	@Override
+	protected void writeHeader (final OutputStream output, final String executionParams) throws IOException {
+		writeText(output, HEADER + LINE_SEPARATOR);
+	}
+
+	@Override
+	protected void writeResults (final OutputStream output, final String currency, final CalcResult[] calcResults) throws IOException {
+
+		StringBuilder text = new StringBuilder();
+		for (int i=0; i<calcResults.length; i++) {
+			CalcParameters params = calcParametersList.get(i);
+			CalcResult calcResult = calcResults[i];
+			long referenceLevel = 0;
+
+			for (int level=1; level<=params.getMaxLevels(); level++) {
+				long up = (calcResult != null) ? calcResult.getUpHits(level) : 0;
+				long down = (calcResult != null) ? calcResult.getDownHits(level) : 0;
+				long total = up + down;
+				if (level == 1) referenceLevel = total;
+
+				text.append(currency).append(',').append(params.getIncreasePercentage()).append(',').append(params.getDecreasePercentage()).append(',').append(params.getMaxLevels()).append(',');
+				text.append(level).append(',').append(up).append(',').append(down).append(',').append(total).append(',');
+				text.append((total == 0) ? 0 : Math.round(total * 10000.0 / referenceLevel) / 100.0).append(LINE_SEPARATOR);
+			}
+		}
+		writeText(output, text);
+	}
+
+	@Override
+	protected void writeFooter (final OutputStream output, final String executionTotals) throws IOException {
+		// Only the rows (totals are in the log)
+	}
+}
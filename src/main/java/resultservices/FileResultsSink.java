@@ -0,0 +1,105 @@
+package resultservices;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datamodel.CalcParameters;
+import datamodel.CalcResult;
+
+/**
+ * Results file kept open (and buffered) for the whole run. The file is flushed after every pair.
+ * Formats implement the header, the results of a pair and the footer.
+ * Errors are logged and stop the writing (the results are still printed by the application).
+ */
+public abstract class FileResultsSink implements ResultsSink {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(FileResultsSink.class);
+
+	protected static final String LINE_SEPARATOR = System.lineSeparator();
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	protected final List<CalcParameters> calcParametersList;
+	private final Path path;
+	private OutputStream output;
+
+	public FileResultsSink (final Path path, final List<CalcParameters> calcParametersList) {
+		this.path = path;
+		this.calcParametersList = calcParametersList;
+	}
+
+	// Creates the file and writes its header
+	public synchronized void open (final String executionParams) {
+		try {
+			output = wrap(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+			writeHeader(output, executionParams);
+			output.flush();
+		} catch (Exception e) {
+			logger.error ("Exception while creating the results file " + path + ": " + e.getClass() + " - " + e.getMessage());
+			closeQuietly();
+		}
+	}
+
+	@Override
+	public synchronized void write (final String currency, final CalcResult[] calcResults) {
+		if (output != null) {
+			try {
+				writeResults(output, currency, calcResults);
+				output.flush();
+			} catch (Exception e) {
+				logger.error ("Exception while writing the results to file: " + e.getClass() + " - " + e.getMessage());
+				closeQuietly();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close (final String executionTotals) {
+		if (output != null) {
+			try {
+				writeFooter(output, executionTotals);
+				output.close();
+			} catch (Exception e) {
+				logger.error ("Exception while closing the results file: " + e.getClass() + " - " + e.getMessage());
+			}
+			output = null;
+		}
+	}
+
+	private void closeQuietly () {
+		try {
+			if (output != null) {
+				output.close();
+			}
+		} catch (IOException e) {
+			logger.debug ("Exception while closing the results file: " + e.getMessage());
+		}
+		output = null;
+	}
+
+	@Override
+	public final Path getPath() { return this.path; }
+
+	// Output of the file (i.e. compressed). Buffered file by default
+	protected OutputStream wrap (final OutputStream output) throws IOException {
+		return output;
+	}
+
+	protected abstract void writeHeader (final OutputStream output, final String executionParams) throws IOException;
+
+	protected abstract void writeResults (final OutputStream output, final String currency, final CalcResult[] calcResults) throws IOException;
+
+	protected abstract void writeFooter (final OutputStream output, final String executionTotals) throws IOException;
+
+	protected static void writeText (final OutputStream output, final CharSequence text) throws IOException {
+		output.write(text.toString().getBytes(StandardCharsets.UTF_8));
+	}
+}
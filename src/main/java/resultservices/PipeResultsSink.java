@@ -0,0 +1,98 @@
+package resultservices;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.util.List;
+
+import datamodel.CalcParameters;
+import datamodel.CalcResult;
+
+/**
+ * Pipe separated results (.csv), as printed by the application: execution parameters, levels header, one line per
+ * pair (in completion order) and the totals of the run.
+ * When sweeping several combinations, every line starts with its increase, decrease and max. levels, and the header
+ * has the levels of the highest max. levels.
+ */
+public class PipeResultsSink extends FileResultsSink {
+
+	// Only used by the thread writing the file
+	private final DecimalFormat percentageFormat = new DecimalFormat("#.##");
+	private final boolean sweep;
+
+	public PipeResultsSink (final Path path, final List<CalcParameters> calcParametersList) {
+		super(path, calcParametersList);
+		this.sweep = calcParametersList.size() > 1;
+	}
+
+	@Override
+	protected void writeHeader (final OutputStream output, final String executionParams) throws IOException {
+
+		int maxLevels = 0;
+		for (CalcParameters params : calcParametersList) {
+			maxLevels = Math.max(maxLevels, params.getMaxLevels());
+		}
+		writeText(output, executionParams + LINE_SEPARATOR + (sweep ? "INCREASE-%|DECREASE-%|MAX-LEVELS|" : "") + printCurrencyLevelsHeader(maxLevels) + LINE_SEPARATOR);
+	}
+
+	@Override
+	protected void writeResults (final OutputStream output, final String currency, final CalcResult[] calcResults) throws IOException {
+
+		StringBuilder text = new StringBuilder();
+		for (int i=0; i<calcResults.length; i++) {
+			CalcParameters params = calcParametersList.get(i);
+			if (sweep) {
+				text.append(params.getIncreasePercentage()).append('|').append(params.getDecreasePercentage()).append('|').append(params.getMaxLevels()).append('|');
+			}
+			text.append(printCurrencyLevels(currency, calcResults[i], params.getMaxLevels(), percentageFormat)).append(LINE_SEPARATOR);
+		}
+		writeText(output, text);
+	}
+
+	@Override
+	protected void writeFooter (final OutputStream output, final String executionTotals) throws IOException {
+		writeText(output, executionTotals + LINE_SEPARATOR);
+	}
+
+	// Currency levels header
+	public static String printCurrencyLevelsHeader (final int maxLevels) {
+		StringBuilder stringBuilder =  new StringBuilder();
+		stringBuilder.append("CURRENCYPAIR");
+
+		for (int i=1; i <= maxLevels; i++) {
+			stringBuilder.append("|"+i+"-UP|"+i+"-DOWN|"+i+"-TOTAL|"+i+"-%");
+		}
+
+		return (stringBuilder.toString());
+	}
+
+	// Currency result levels (zeros when calcResult is null). DecimalFormat is not thread-safe: one per thread
+	public static String printCurrencyLevels (final String currency, final CalcResult calcResult, final int maxLevels, final DecimalFormat percentageFormat) {
+
+		StringBuilder stringBuilder = new StringBuilder(currency.length() + (maxLevels * 24));
+		stringBuilder.append(currency).append('|');
+
+		double referenceLevel = 0;
+
+		for (int i=1; i <= maxLevels; i++) {
+			long up = (calcResult != null) ? calcResult.getUpHits(i) : 0;
+			long down = (calcResult != null) ? calcResult.getDownHits(i) : 0;
+			long total = up + down;
+
+			stringBuilder.append(up).append('|');
+			stringBuilder.append(down).append('|');
+			stringBuilder.append(total).append('|');
+			if (i==1) referenceLevel = total;
+
+			if (total == 0) {
+				stringBuilder.append('0');
+			} else {
+				stringBuilder.append(percentageFormat.format(total*100/referenceLevel));
+			}
+			stringBuilder.append('|');
+		}
+
+		return (stringBuilder.toString());
+	}
+}
@@ -0,0 +1,29 @@
+package resultservices;
+
+import java.nio.file.Path;
+
+import datamodel.CalcResult;
+
+/**
+ * Destination of the results of a run. Pairs are written as they complete (so the results of a long run
+ * are available while it runs) and the sink is closed once, with the totals of the run.
+ */
+public interface ResultsSink {
+
+	/**
+	 * Writes the results of a currency pair (pairs without data too, as zeros).
+	 *
+	 * @param currency currency pair
+	 * @param calcResults one result per combination of parameters (null when the pair has no data)
+	 */
+	public void write (final String currency, final CalcResult[] calcResults);
+
+	/**
+	 * Writes the totals of the run and closes the sink.
+	 *
+	 * @param executionTotals totals of the run, as printed in the results file
+	 */
+	public void close (final String executionTotals);
+
+	public Path getPath ();
+}
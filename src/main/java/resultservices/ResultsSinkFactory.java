@@ -0,0 +1,42 @@
+package resultservices;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import datamodel.CalcParameters;
+
+/**
+ * Creates the results sink of a run for the configured format [pipe | csv.gz | binary] (pipe by default).
+ * The file is named after the start of the run (resultsPath + yyyy-MM-dd HHmmss + extension of the format),
+ * and written asynchronously.
+ */
+public class ResultsSinkFactory {
+
+	public static final String PIPE = "pipe";
+	public static final String CSV_GZIP = "csv.gz";
+	public static final String BINARY = "binary";
+
+	public static ResultsSink getSink (final String format, final String resultsPath, final List<CalcParameters> calcParametersList, final String executionParams) {
+
+		String fileName = resultsPath + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HHmmss"));
+		FileResultsSink sink = null;
+
+		if (CSV_GZIP.equals(format)) {
+			sink = new CsvGzipResultsSink(getPath(fileName, ".csv.gz"), calcParametersList);
+		} else if (BINARY.equals(format)) {
+			sink = new BinaryResultsSink(getPath(fileName, ".bin"), calcParametersList);
+		} else {
+			sink = new PipeResultsSink(getPath(fileName, ".csv"), calcParametersList);
+		}
+
+		sink.open(executionParams);
+		return new AsyncResultsSink(sink);
+	}
+
+	private static Path getPath (final String fileName, final String extension) {
+		return Paths.get(fileName + extension);
+	}
+}
@@ -0,0 +1,232 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import utils.ChainEventLog;
+
+/**
+ * Reader of the chain event files written by ChainEventLog (main.chainEvents).
+ * The file is memory-mapped and read record by record without allocating, so it can also be used from analysis code:
+ *
+ *   ChainEventReader reader = new ChainEventReader(file);
+ *   while (reader.next()) {
+ *       ... reader.getStartPosition(), reader.getLevels(), reader.getLevelPosition(level) ...
+ *   }
+ *
+ * From the command line, every file given (or every .events file of the directories given) is summarized
+ * (chains per direction, end reason and levels reached), or dumped as CSV:
+ * Usage: java -cp fx-calculator.jar tools.ChainEventReader [summary | csv] files or directories
+ */
+public class ChainEventReader {
+
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+	private static final String[] DIRECTIONS = {"NONE", "UP", "DOWN"};
+	private static final String[] REASONS = {"", "MAX_LEVELS", "REVERSAL", "HORIZON", "END_OF_DATA"};
+
+	private final File file;
+	private final ByteBuffer records;
+	private final int recordSize;
+	private final int maxLevels;
+	// Records with the position of every level (main.chainEventsLevelPositions)
+	private final boolean levelPositions;
+	private final float increasePercentage;
+	private final float decreasePercentage;
+	private final int maxHorizon;
+	private final String maxHorizonUnit;
+	private final String currency;
+	private final String startDate;
+	private final String endDate;
+	private final int fileNumber;
+
+	// Current record
+	private int recordOffset = -1;
+
+	public ChainEventReader (final File file) throws IOException {
+
+		this.file = file;
+
+		MappedByteBuffer buffer;
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r"); FileChannel channel = randomAccessFile.getChannel()) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buffer.remaining() < ChainEventLog.HEADER_SIZE || buffer.getInt() != ChainEventLog.MAGIC || buffer.getInt() != ChainEventLog.VERSION) {
+			throw new IOException("Not a chain events file: " + file);
+		}
+		int headerSize = buffer.getInt();
+		recordSize = buffer.getInt();
+		maxLevels = buffer.getInt();
+		levelPositions = recordSize > ChainEventLog.RECORD_HEADER_SIZE;
+		increasePercentage = buffer.getFloat();
+		decreasePercentage = buffer.getFloat();
+		maxHorizon = buffer.getInt();
+		maxHorizonUnit = readUTF(buffer);
+		currency = readUTF(buffer);
+		startDate = readUTF(buffer);
+		endDate = readUTF(buffer);
+		fileNumber = buffer.getInt();
+
+		buffer.position(headerSize);
+		records = buffer.slice();
+	}
+
+	// Moves to the next record (records never written, i.e. after a failure, are skipped). False at the end of the file
+	public boolean next () {
+		do {
+			recordOffset = (recordOffset < 0) ? 0 : recordOffset + recordSize;
+			if (recordOffset + recordSize > records.limit()) {
+				recordOffset = records.limit();
+				return false;
+			}
+		} while (getReason() == 0);
+		return true;
+	}
+
+	public final int getStartPosition() { return records.getInt(recordOffset); }
+	public final int getTimestamp() { return records.getInt(recordOffset + 4); }
+	public final byte getDirection() { return records.get(recordOffset + 8); }
+	public final int getLevels() { return records.get(recordOffset + 9) & 0xFF; }
+	public final byte getReason() { return records.get(recordOffset + 10); }
+	public final int getEndPosition() { return records.getInt(recordOffset + 12); }
+	// Position of the bar hitting the level (1 to getLevels()), -1 when the file has no level positions
+	public final int getLevelPosition(final int level) { return levelPositions ? records.getInt(recordOffset + ChainEventLog.RECORD_HEADER_SIZE + ((level - 1) * Integer.BYTES)) : -1; }
+	public final boolean hasLevelPositions() { return levelPositions; }
+
+	public final long getRecords() { return records.limit() / recordSize; }
+	public final int getMaxLevels() { return maxLevels; }
+	public final float getIncreasePercentage() { return increasePercentage; }
+	public final float getDecreasePercentage() { return decreasePercentage; }
+	public final int getMaxHorizon() { return maxHorizon; }
+	public final String getMaxHorizonUnit() { return maxHorizonUnit; }
+	public final String getCurrency() { return currency; }
+	public final String getStartDate() { return startDate; }
+	public final String getEndDate() { return endDate; }
+	public final int getFileNumber() { return fileNumber; }
+
+	private static String readUTF (final ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static String getDirectionName (final byte direction) {
+		return (direction >= 0 && direction < DIRECTIONS.length) ? DIRECTIONS[direction] : String.valueOf(direction);
+	}
+
+	public static String getReasonName (final byte reason) {
+		return (reason > 0 && reason < REASONS.length) ? REASONS[reason] : String.valueOf(reason);
+	}
+
+	public static String formatTimestamp (final int epochMinutes) {
+		return LocalDateTime.ofEpochSecond(epochMinutes * 60L, 0, ZoneOffset.UTC).format(TIMESTAMP_FORMAT);
+	}
+
+	public static void main (String args[]) throws IOException {
+
+		String mode = "summary";
+		int firstFile = 0;
+		if (args.length > 0 && ("csv".equals(args[0]) || "summary".equals(args[0]))) {
+			mode = args[0];
+			firstFile = 1;
+		}
+
+		List<File> files = new ArrayList<File>();
+		for (int i=firstFile; i<args.length; i++) {
+			File file = new File(args[i]);
+			if (file.isDirectory()) {
+				File[] eventFiles = file.listFiles();
+				if (eventFiles != null) {
+					Arrays.sort(eventFiles);
+					for (File eventFile : eventFiles) {
+						if (eventFile.getName().endsWith(".events")) {
+							files.add(eventFile);
+						}
+					}
+				}
+			} else {
+				files.add(file);
+			}
+		}
+
+		if (files.isEmpty()) {
+			System.err.println("Usage: java -cp fx-calculator.jar tools.ChainEventReader [summary | csv] files or directories");
+			System.exit(1);
+		}
+
+		PrintStream out = System.out;
+		if ("csv".equals(mode)) {
+			out.println("currency,increase_percentage,decrease_percentage,start_position,timestamp,direction,levels,reason,end_position,level_positions");
+		}
+
+		for (File file : files) {
+			ChainEventReader reader = new ChainEventReader(file);
+			if ("csv".equals(mode)) {
+				printCsv(reader, out);
+			} else {
+				printSummary(reader, out);
+			}
+		}
+		out.flush();
+	}
+
+	private static void printCsv (final ChainEventReader reader, final PrintStream out) {
+		StringBuilder line = new StringBuilder(256);
+		while (reader.next()) {
+			line.setLength(0);
+			line.append(reader.getCurrency()).append(',').append(reader.getIncreasePercentage()).append(',').append(reader.getDecreasePercentage()).append(',');
+			line.append(reader.getStartPosition()).append(',').append(formatTimestamp(reader.getTimestamp())).append(',');
+			line.append(getDirectionName(reader.getDirection())).append(',').append(reader.getLevels()).append(',');
+			line.append(getReasonName(reader.getReason())).append(',').append(reader.getEndPosition()).append(',');
+			for (int level=1; level<=reader.getLevels() && reader.hasLevelPositions(); level++) {
+				if (level > 1) line.append(' ');
+				line.append(reader.getLevelPosition(level));
+			}
+			out.println(line);
+		}
+	}
+
+	private static void printSummary (final ChainEventReader reader, final PrintStream out) {
+
+		long chains = 0;
+		long[] directions = new long[DIRECTIONS.length];
+		long[] reasons = new long[REASONS.length];
+		long[] levels = new long[reader.getMaxLevels() + 1];
+		long totalBars = 0;
+
+		while (reader.next()) {
+			chains++;
+			if (reader.getDirection() >= 0 && reader.getDirection() < directions.length) directions[reader.getDirection()]++;
+			if (reader.getReason() > 0 && reader.getReason() < reasons.length) reasons[reader.getReason()]++;
+			levels[Math.min(reader.getLevels(), reader.getMaxLevels())]++;
+			totalBars += reader.getEndPosition() - reader.getStartPosition();
+		}
+
+		out.println(reader.file + ": " + reader.getCurrency() + " [" + reader.getStartDate() + " - " + reader.getEndDate() + "] increase " + reader.getIncreasePercentage() + "% decrease " + reader.getDecreasePercentage() + "% max. levels " + reader.getMaxLevels() + " max. horizon " + reader.getMaxHorizon() + " " + reader.getMaxHorizonUnit() + " (file " + reader.getFileNumber() + ")");
+		out.println("  chains           : " + String.format("%,d", chains));
+		out.println("  avg. length      : " + ((chains > 0) ? String.format("%,.1f", (double) totalBars / chains) : "-") + " bars");
+		for (byte direction=0; direction<directions.length; direction++) {
+			out.println("  direction " + String.format("%-6s : %,d", getDirectionName(direction), directions[direction]));
+		}
+		for (byte reason=1; reason<reasons.length; reason++) {
+			out.println("  end " + String.format("%-12s : %,d", getReasonName(reason), reasons[reason]));
+		}
+		for (int level=0; level<levels.length; level++) {
+			if (levels[level] > 0) {
+				out.println("  levels " + String.format("%-9d : %,d", level, levels[level]));
+			}
+		}
+	}
+}
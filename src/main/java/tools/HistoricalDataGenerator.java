@@ -0,0 +1,250 @@
+package tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.ApplicationProperties;
+import utils.DatabaseUtils;
+import utils.GeneralUtils;
+
+/**
+ * Synthetic historical data generator for scale testing.
+ * Writes one minute bars (date,time,open,high,low,close in the main.historicalDataSeparator format) following a
+ * geometric brownian motion with the configured volatility and trend. Every bar is simulated with several ticks,
+ * so high and low are the extremes of the path between open and close (always low <= open, close <= high).
+ * The market is closed from Friday 17:00 to Sunday 17:00, as in the real files.
+ * Randomness is seeded (seed + pair number), so the same properties always generate the same files.
+ * Optionally writes a MySQL dump per pair with the historico_ table read by the database datasource.
+ *
+ * Properties: generator.* in application.properties
+ * Usage: java -cp fx-calculator.jar tools.HistoricalDataGenerator
+ */
+public class HistoricalDataGenerator {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(HistoricalDataGenerator.class);
+
+	private static final int TICKS_PER_BAR = 4;
+	// Minutes the market is open in a year (52 weeks of 5 days)
+	private static final double MINUTES_PER_YEAR = 52 * 5 * 1440;
+	private static final int MARKET_OPEN_MINUTE = 17 * 60;
+	private static final int ROWS_PER_INSERT = 1000;
+	private static final int LOG_AFTER = 1000000;
+
+	private final String currencyPair;
+	private final int bars;
+	private final String startDate;
+	private final double initialPrice;
+	private final double volatility;
+	private final double trend;
+	private final int decimals;
+	private final long seed;
+
+	/**
+	 * @param currencyPair name of the generated pair (file and table name)
+	 * @param bars number of bars
+	 * @param startDate date of the first bar (yyyy-MM-dd)
+	 * @param initialPrice open of the first bar
+	 * @param volatility annualized volatility (i.e. 10 for 10%)
+	 * @param trend annualized drift (i.e. -5 for -5%)
+	 * @param decimals decimals of the prices
+	 * @param seed random seed
+	 */
+	public HistoricalDataGenerator (final String currencyPair, final int bars, final String startDate, final double initialPrice, final double volatility, final double trend, final int decimals, final long seed) {
+		this.currencyPair = currencyPair;
+		this.bars = bars;
+		this.startDate = startDate;
+		this.initialPrice = initialPrice;
+		this.volatility = volatility;
+		this.trend = trend;
+		this.decimals = decimals;
+		this.seed = seed;
+	}
+
+	public static void main (String args[]) {
+
+		String outputPath = ApplicationProperties.getStringProperty("generator.outputPath");
+		if (outputPath == null || outputPath.isEmpty()) {
+			outputPath = ApplicationProperties.getStringProperty("main.historicalDataPath");
+		}
+		String fileExtension = ApplicationProperties.getStringProperty("main.historicalDataFileExtension");
+		char separator = ApplicationProperties.getStringProperty("main.historicalDataSeparator").charAt(0);
+
+		int numberOfPairs = ApplicationProperties.getIntProperty("generator.numberOfPairs");
+		String pairPrefix = ApplicationProperties.getStringProperty("generator.pairPrefix");
+		int bars = ApplicationProperties.getIntProperty("generator.bars");
+		String startDate = ApplicationProperties.getStringProperty("generator.startDate");
+		double initialPrice = Double.parseDouble(ApplicationProperties.getStringProperty("generator.initialPrice"));
+		double volatility = Double.parseDouble(ApplicationProperties.getStringProperty("generator.volatility"));
+		double trend = Double.parseDouble(ApplicationProperties.getStringProperty("generator.trend"));
+		int decimals = ApplicationProperties.getIntProperty("generator.decimals");
+		long seed = Long.parseLong(ApplicationProperties.getStringProperty("generator.seed"));
+		boolean mysqlDump = ApplicationProperties.getBooleanProperty("generator.mysqlDump");
+
+		logger.info ("Generating " + numberOfPairs + " pairs of " + bars + " bars into " + outputPath + " (volatility " + volatility + "%, trend " + trend + "%, seed " + seed + ")");
+
+		for (int pair=1; pair<=numberOfPairs; pair++) {
+
+			String currencyPair = String.format("%s%02d", pairPrefix, pair);
+			HistoricalDataGenerator generator = new HistoricalDataGenerator(currencyPair, bars, startDate, initialPrice, volatility, trend, decimals, seed + pair);
+
+			try {
+				long startTime = System.currentTimeMillis();
+				File file = new File(outputPath + currencyPair + fileExtension);
+				generator.writeCsv(file, separator);
+				logger.info (currencyPair + " -> " + file + " written in " + (System.currentTimeMillis() - startTime) + " ms");
+
+				if (mysqlDump) {
+					startTime = System.currentTimeMillis();
+					File dumpFile = new File(outputPath + currencyPair + ".sql");
+					generator.writeMysqlDump(dumpFile);
+					logger.info (currencyPair + " -> " + dumpFile + " written in " + (System.currentTimeMillis() - startTime) + " ms");
+				}
+			} catch (Exception e) {
+				logger.error ("Exception while generating " + currencyPair + ": " + e.getClass() + " - " + e.getMessage());
+			}
+		}
+		logger.info ("Generator finished");
+	}
+
+	// Writes the bars as an historical data file
+	public void writeCsv (final File file, final char separator) throws IOException {
+
+		try (Writer writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+			final StringBuilder line = new StringBuilder(64);
+			generate(new BarWriter() {
+				@Override
+				public void write (final String date, final String time, final long open, final long high, final long low, final long close) throws IOException {
+					line.setLength(0);
+					line.append(date).append(separator).append(time);
+					appendPrice(line.append(separator), open);
+					appendPrice(line.append(separator), high);
+					appendPrice(line.append(separator), low);
+					appendPrice(line.append(separator), close);
+					line.append('\n');
+					writer.append(line);
+				}
+			});
+		}
+	}
+
+	// Writes a MySQL dump creating and filling historico_<pair> (same bars as writeCsv)
+	public void writeMysqlDump (final File file) throws IOException {
+
+		final String table = DatabaseUtils.getTableName(currencyPair);
+
+		try (final Writer writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+			writer.write("-- Synthetic historical data of " + currencyPair + " (" + bars + " bars, seed " + seed + ")\n");
+			writer.write("DROP TABLE IF EXISTS `" + table + "`;\n");
+			writer.write(DatabaseUtils.getCreateTableSql(currencyPair, decimals) + ";\n");
+			writer.write("LOCK TABLES `" + table + "` WRITE;\n");
+
+			final StringBuilder line = new StringBuilder(64);
+			final int[] rows = new int[1];
+			generate(new BarWriter() {
+				@Override
+				public void write (final String date, final String time, final long open, final long high, final long low, final long close) throws IOException {
+					line.setLength(0);
+					line.append((rows[0] % ROWS_PER_INSERT == 0) ? "INSERT INTO `" + table + "` VALUES " : ",");
+					line.append("('").append(date).append("','").append(time).append("'");
+					appendPrice(line.append(','), open);
+					appendPrice(line.append(','), high);
+					appendPrice(line.append(','), low);
+					appendPrice(line.append(','), close);
+					line.append(')');
+					rows[0]++;
+					if (rows[0] % ROWS_PER_INSERT == 0) {
+						line.append(";\n");
+					}
+					writer.append(line);
+				}
+			});
+			if (rows[0] % ROWS_PER_INSERT != 0) {
+				writer.write(";\n");
+			}
+			writer.write("UNLOCK TABLES;\n");
+		}
+	}
+
+	// Simulates the bars and passes them to the writer, prices scaled by 10^decimals
+	private void generate (final BarWriter barWriter) throws IOException {
+
+		Random random = new Random(seed);
+		double scale = Math.pow(10, decimals);
+
+		// Drift and volatility of every tick (dt = 1 / ticks per year)
+		double dt = 1 / (MINUTES_PER_YEAR * TICKS_PER_BAR);
+		double tickVolatility = (volatility / 100) * Math.sqrt(dt);
+		double tickDrift = ((trend / 100) - (Math.pow(volatility / 100, 2) / 2)) * dt;
+
+		int minute = GeneralUtils.getEpochMinutes(startDate, "00:00");
+		long epochDay = -1;
+		String date = null;
+		String[] times = GeneralUtils.getTimes();
+		double price = initialPrice;
+
+		for (int bar=0; bar<bars; bar++, minute++) {
+
+			minute = getNextOpenMinute(minute);
+			if (minute / 1440 != epochDay) {
+				epochDay = minute / 1440;
+				date = LocalDate.ofEpochDay(epochDay).toString();
+			}
+
+			double open = price;
+			double high = price;
+			double low = price;
+			for (int tick=0; tick<TICKS_PER_BAR; tick++) {
+				price = price * Math.exp(tickDrift + (tickVolatility * random.nextGaussian()));
+				high = Math.max(high, price);
+				low = Math.min(low, price);
+			}
+
+			// Rounding keeps the order of the prices
+			barWriter.write(date, times[minute % 1440], Math.round(open * scale), Math.round(high * scale), Math.round(low * scale), Math.round(price * scale));
+
+			if ((bar + 1) % LOG_AFTER == 0) {
+				logger.info ("  " + currencyPair + " -> " + (bar + 1) + " bars");
+			}
+		}
+	}
+
+	// Skips the weekend: from Friday 17:00 to Sunday 17:00
+	private static int getNextOpenMinute (final int minute) {
+		// 1970-01-01 was a Thursday (Monday = 0)
+		int dayOfWeek = ((minute / 1440) + 3) % 7;
+		int minuteOfDay = minute % 1440;
+
+		if ((dayOfWeek == 4 && minuteOfDay >= MARKET_OPEN_MINUTE) || dayOfWeek == 5 || (dayOfWeek == 6 && minuteOfDay < MARKET_OPEN_MINUTE)) {
+			int daysToSunday = 6 - dayOfWeek;
+			return ((minute / 1440) + daysToSunday) * 1440 + MARKET_OPEN_MINUTE;
+		}
+		return minute;
+	}
+
+	// Appends the scaled price with its decimals (i.e. 101470 -> 1.01470)
+	private void appendPrice (final StringBuilder line, final long price) {
+		long divisor = (long) Math.pow(10, decimals);
+		line.append(price / divisor);
+		if (decimals > 0) {
+			line.append('.');
+			String fraction = Long.toString(price % divisor);
+			for (int i=fraction.length(); i<decimals; i++) {
+				line.append('0');
+			}
+			line.append(fraction);
+		}
+	}
+
+	private interface BarWriter {
+		void write (String date, String time, long open, long high, long low, long close) throws IOException;
+	}
+}
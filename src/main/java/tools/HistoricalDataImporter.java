@@ -0,0 +1,332 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datamodel.FxRateConsumer;
+import utils.ApplicationProperties;
+import utils.DatabaseConnection;
+import utils.DatabaseUtils;
+import utils.GeneralUtils;
+import utils.HistoricalDataCache;
+import utils.HistoricalDataParser;
+
+/**
+ * Bulk importer of the historical data files into the historico_<pair> tables of the database datasource.
+ * The table is created when it does not exist. Every file is split in ranges of complete lines, loaded in
+ * parallel by importer.connections connections with one of the methods:
+ *  - batch: the rows are parsed and sent as JDBC batch inserts of importer.batchSize rows (multi-row inserts
+ *    with rewriteBatchedStatements), committed per batch
+ *  - loaddata: the range is streamed to the server as is with LOAD DATA LOCAL INFILE (local_infile enabled
+ *    in the server)
+ * Rows already in the table (same date and time) are skipped, so an interrupted import can be run again.
+ * The rows loaded and rows/sec are logged every importer.reportSecs seconds.
+ *
+ * Properties: importer.* and database.* in application.properties
+ * Usage: java -cp fx-calculator.jar tools.HistoricalDataImporter
+ */
+public class HistoricalDataImporter {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(HistoricalDataImporter.class);
+
+	public static final String METHOD_BATCH = "batch";
+	public static final String METHOD_LOAD_DATA = "loaddata";
+
+	private final String currencyPair;
+	private final File file;
+	private final char separator;
+	private final String method;
+	private final int connections;
+	private final int batchSize;
+
+	// Rows loaded so far by every connection
+	private final AtomicLong loadedRows = new AtomicLong();
+
+	/**
+	 * @param currencyPair currency pair (file and table name)
+	 * @param file historical data file
+	 * @param separator field separator of the file
+	 * @param method [batch | loaddata]
+	 * @param connections parallel connections
+	 * @param batchSize rows per batch insert (batch method)
+	 */
+	public HistoricalDataImporter (final String currencyPair, final File file, final char separator, final String method, final int connections, final int batchSize) {
+		this.currencyPair = currencyPair;
+		this.file = file;
+		this.separator = separator;
+		this.method = method;
+		this.connections = connections;
+		this.batchSize = batchSize;
+	}
+
+	public static void main (String args[]) {
+
+		List<String> currencyPairs = ApplicationProperties.getListProperty("importer.currencyPairs");
+		if (currencyPairs.isEmpty() || currencyPairs.get(0).isEmpty()) {
+			currencyPairs = ApplicationProperties.getListProperty("execution.currencyPairs");
+		}
+		char separator = ApplicationProperties.getStringProperty("main.historicalDataSeparator").charAt(0);
+		String method = ApplicationProperties.getStringProperty("importer.method");
+		int connections = Math.max(1, ApplicationProperties.getIntProperty("importer.connections"));
+		int batchSize = Math.max(1, ApplicationProperties.getIntProperty("importer.batchSize"));
+		int decimals = ApplicationProperties.getIntProperty("importer.decimals");
+		int reportSecs = Math.max(1, ApplicationProperties.getIntProperty("importer.reportSecs"));
+
+		logger.info ("Importing " + currencyPairs + " (" + method + ", " + connections + " connections)");
+
+		for (String currencyPair : currencyPairs) {
+			File file = HistoricalDataCache.getSourceFile(currencyPair);
+			HistoricalDataImporter importer = new HistoricalDataImporter(currencyPair, file, separator, method, connections, batchSize);
+			try {
+				importer.createTable(decimals);
+				importer.importFile(reportSecs);
+			} catch (Exception e) {
+				logger.error ("Exception while importing " + currencyPair + " from " + file + ": " + e.getClass() + " - " + e.getMessage());
+			}
+		}
+		logger.info ("Importer finished");
+	}
+
+	// Creates the historical rates table when it does not exist
+	public void createTable (final int decimals) throws SQLException {
+		try (Connection connection = DatabaseConnection.createConnection(); Statement stmt = connection.createStatement()) {
+			stmt.executeUpdate(DatabaseUtils.getCreateTableSql(currencyPair, decimals));
+		}
+	}
+
+	// Loads the file with every connection in parallel. Returns the rows loaded
+	public long importFile (final int reportSecs) throws Exception {
+
+		final long startTime = System.currentTimeMillis();
+		List<long[]> ranges = getRanges(file, connections);
+
+		logger.info ("Importing " + file + " into " + DatabaseUtils.getTableName(currencyPair) + " (" + file.length() + " bytes, " + ranges.size() + " ranges)");
+
+		// Progress report: rows loaded, rows/sec since the previous report and since the start
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		reporter.scheduleAtFixedRate(new Runnable() {
+			private long previousRows = 0;
+			private long previousTime = startTime;
+			@Override
+			public void run () {
+				long rows = loadedRows.get();
+				long now = System.currentTimeMillis();
+				logger.info ("  " + currencyPair + " -> " + String.format("%,d", rows) + " rows (" + String.format("%,d", getRowsPerSecond(rows - previousRows, now - previousTime)) + " rows/sec, avg. " + String.format("%,d", getRowsPerSecond(rows, now - startTime)) + ")");
+				previousRows = rows;
+				previousTime = now;
+			}
+		}, reportSecs, reportSecs, TimeUnit.SECONDS);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, ranges.size()));
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+			for (final long[] range : ranges) {
+				futures.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call () throws Exception {
+						return importRange(range[0], range[1]);
+					}
+				}));
+			}
+			long rows = 0;
+			for (Future<Long> future : futures) {
+				rows += future.get();
+			}
+
+			long elapsedTime = System.currentTimeMillis() - startTime;
+			logger.info (currencyPair + " -> " + String.format("%,d", rows) + " rows imported in " + elapsedTime + " ms (" + String.format("%,d", getRowsPerSecond(rows, elapsedTime)) + " rows/sec)");
+			return rows;
+		} finally {
+			executor.shutdownNow();
+			reporter.shutdownNow();
+		}
+	}
+
+	// Loads the lines in [startOffset, endOffset) with its own connection
+	private long importRange (final long startOffset, final long endOffset) throws Exception {
+
+		try (Connection connection = DatabaseConnection.createConnection()) {
+			if (METHOD_LOAD_DATA.equals(method)) {
+				return loadData(connection, startOffset, endOffset);
+			}
+			return insertBatches(connection, startOffset, endOffset);
+		} catch (ParseException ex) {
+			throw new ParseException(file + " - range from offset " + startOffset + " - line " + ex.getErrorOffset() + " of the range - " + ex.getMessage(), ex.getErrorOffset());
+		}
+	}
+
+	private long insertBatches (final Connection connection, final long startOffset, final long endOffset) throws Exception {
+
+		connection.setAutoCommit(false);
+
+		String sql = "INSERT IGNORE INTO " + DatabaseUtils.getTableName(currencyPair) + " (fecha, hora, apertura, alto, bajo, cerrar) VALUES (?, ?, ?, ?, ?, ?)";
+
+		try (final PreparedStatement stmt = connection.prepareStatement(sql)) {
+
+			final String[] times = GeneralUtils.getTimes();
+			final long[] pendingRows = new long[1];
+
+			HistoricalDataParser parser = new HistoricalDataParser(separator, false);
+			long rows = parser.parse(file, null, null, startOffset, endOffset, 1, new FxRateConsumer() {
+				private int epochDay = -1;
+				private String date;
+				@Override
+				public void add (final int timestamp, final float open, final float high, final float low, final float close) {
+					try {
+						if (timestamp / 1440 != epochDay) {
+							epochDay = timestamp / 1440;
+							date = LocalDate.ofEpochDay(epochDay).toString();
+						}
+						stmt.setString(1, date);
+						stmt.setString(2, times[timestamp % 1440]);
+						stmt.setFloat(3, open);
+						stmt.setFloat(4, high);
+						stmt.setFloat(5, low);
+						stmt.setFloat(6, close);
+						stmt.addBatch();
+
+						if (++pendingRows[0] == batchSize) {
+							executeBatch(connection, stmt, pendingRows);
+						}
+					} catch (SQLException e) {
+						// The consumer cannot throw checked exceptions
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			executeBatch(connection, stmt, pendingRows);
+			return rows;
+		}
+	}
+
+	private void executeBatch (final Connection connection, final PreparedStatement stmt, final long[] pendingRows) throws SQLException {
+		if (pendingRows[0] > 0) {
+			stmt.executeBatch();
+			connection.commit();
+			loadedRows.addAndGet(pendingRows[0]);
+			pendingRows[0] = 0;
+		}
+	}
+
+	private long loadData (final Connection connection, final long startOffset, final long endOffset) throws Exception {
+
+		// Trailing carriage returns (Windows line breaks) are removed from the last column
+		String sql = "LOAD DATA LOCAL INFILE 'range' IGNORE INTO TABLE " + DatabaseUtils.getTableName(currencyPair)
+			+ " FIELDS TERMINATED BY '" + separator + "' LINES TERMINATED BY '\\n'"
+			+ " (fecha, hora, apertura, alto, bajo, @cerrar) SET cerrar = TRIM(TRAILING '\\r' FROM @cerrar)";
+
+		try (Statement stmt = connection.createStatement();
+				RangeInputStream input = new RangeInputStream(file, startOffset, endOffset)) {
+			// The driver sends this stream instead of reading the file named in the statement
+			stmt.unwrap(com.mysql.jdbc.Statement.class).setLocalInfileInputStream(input);
+			stmt.executeUpdate(sql);
+			return input.getLines();
+		}
+	}
+
+	// Splits the file in ranges of complete lines of similar size
+	private static List<long[]> getRanges (final File file, final int parts) throws IOException {
+
+		List<long[]> ranges = new ArrayList<long[]>();
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			long length = randomAccessFile.length();
+			long start = 0;
+			for (int part=1; part<=parts && start < length; part++) {
+				long end = length;
+				if (part < parts) {
+					// Next line after the approximate end
+					randomAccessFile.seek(Math.max(start, (length * part / parts) - 1));
+					int b;
+					while ((b = randomAccessFile.read()) >= 0 && b != '\n');
+					end = randomAccessFile.getFilePointer();
+				}
+				if (end > start) {
+					ranges.add(new long[] {start, end});
+				}
+				start = end;
+			}
+		}
+		return ranges;
+	}
+
+	private static long getRowsPerSecond (final long rows, final long millis) {
+		return (millis > 0) ? (rows * 1000 / millis) : 0;
+	}
+
+	// Bytes in [startOffset, endOffset) of the file, counting the lines read (rows loaded so far)
+	private class RangeInputStream extends InputStream {
+
+		private final FileChannel channel;
+		private long position;
+		private final long endOffset;
+		private long lines = 0;
+		private boolean lastLineBreak = true;
+
+		private RangeInputStream (final File file, final long startOffset, final long endOffset) throws IOException {
+			this.channel = FileChannel.open(file.toPath());
+			this.position = startOffset;
+			this.endOffset = endOffset;
+		}
+
+		@Override
+		public int read () throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+		}
+
+		@Override
+		public int read (final byte[] b, final int off, final int len) throws IOException {
+			if (position >= endOffset) {
+				return -1;
+			}
+			int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, endOffset - position)), position);
+			if (read > 0) {
+				position += read;
+				long readLines = 0;
+				for (int i=off; i<off+read; i++) {
+					if (b[i] == '\n') {
+						readLines++;
+					}
+				}
+				lastLineBreak = (b[off + read - 1] == '\n');
+				lines += readLines;
+				loadedRows.addAndGet(readLines);
+			}
+			return read;
+		}
+
+		// Lines sent (including a last one without line break)
+		private long getLines () {
+			return lastLineBreak ? lines : lines + 1;
+		}
+
+		@Override
+		public void close () throws IOException {
+			channel.close();
+		}
+	}
+}
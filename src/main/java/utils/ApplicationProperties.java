@@ -3,6 +3,8 @@ package utils;
 import static java.lang.System.out;
 
 import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
@@ -22,6 +24,45 @@ public class ApplicationProperties {
     	return Arrays.asList(values.split("\\s*,\\s*"));
     }
 
+    // Values separated by commas. Every value can be a range: from:to:step (both ends included)
+    // i.e. 0.5:2:0.5,3 -> [0.5, 1.0, 1.5, 2.0, 3.0]
+    public static List<Float> getFloatListProperty (final String propertyName) {
+        List<Float> result = new ArrayList<Float>();
+        for (BigDecimal value : getDecimalListProperty(propertyName)) {
+            result.add(Float.parseFloat(value.toPlainString()));
+        }
+        return result;
+    }
+
+    public static List<Integer> getIntListProperty (final String propertyName) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (BigDecimal value : getDecimalListProperty(propertyName)) {
+            result.add(value.intValueExact());
+        }
+        return result;
+    }
+
+    private static List<BigDecimal> getDecimalListProperty (final String propertyName) {
+        List<BigDecimal> result = new ArrayList<BigDecimal>();
+        for (String value : getListProperty(propertyName)) {
+            String[] range = value.split("\\s*:\\s*");
+            if (range.length == 3) {
+                BigDecimal from = new BigDecimal(range[0]);
+                BigDecimal to = new BigDecimal(range[1]);
+                BigDecimal step = new BigDecimal(range[2]);
+                if (step.signum() <= 0) {
+                    throw new IllegalArgumentException("Invalid range step for " + propertyName + ": " + value);
+                }
+                for (BigDecimal current = from; current.compareTo(to) <= 0; current = current.add(step)) {
+                    result.add(current);
+                }
+            } else {
+                result.add(new BigDecimal(value));
+            }
+        }
+        return result;
+    }
+
     public static String getStringProperty (final String propertyName) {
         return getProperty(propertyName);
     }
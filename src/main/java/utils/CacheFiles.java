@@ -0,0 +1,89 @@
+package utils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Files derived from the historical data files: binary cache, date index, incremental state and cached results.
+ * They are kept in main.historicalDataCachePath, or next to the source files when empty, and always written
+ * through a temporary file moved into place, so readers never see a partially written file.
+ * Binary files start with a common header (little endian): magic (int), version (int), source size (long),
+ * source last modified (long).
+ */
+public class CacheFiles {
+
+	public static final int HEADER_SIZE = 24;
+	private static final int CHECKSUM_BUFFER_SIZE = 1 << 20;
+
+	public static String getCachePath () {
+		String cachePath = ApplicationProperties.getStringProperty("main.historicalDataCachePath");
+		if (cachePath == null || cachePath.isEmpty()) {
+			cachePath = ApplicationProperties.getStringProperty("main.historicalDataPath");
+		}
+		return cachePath;
+	}
+
+	public static File getCacheFile (final String currentCurrency, final String extension) {
+		return new File(getCachePath() + currentCurrency + extension);
+	}
+
+	public static void putHeader (final ByteBuffer header, final int magic, final int version, final File sourceFile) {
+		header.putInt(0, magic);
+		header.putInt(4, version);
+		header.putLong(8, sourceFile.length());
+		header.putLong(16, sourceFile.lastModified());
+	}
+
+	// Same format, and written for the current size and last modification time of the source file
+	public static boolean isHeaderValid (final ByteBuffer header, final int magic, final int version, final File sourceFile) {
+		return isFormatValid(header, magic, version) && (header.getLong(8) == sourceFile.length()) && (header.getLong(16) == sourceFile.lastModified());
+	}
+
+	public static boolean isFormatValid (final ByteBuffer header, final int magic, final int version) {
+		return (header.getInt(0) == magic) && (header.getInt(4) == version);
+	}
+
+	// Writes the file into a temporary file of the same directory and moves it into place (the temporary file is removed on errors)
+	public static void atomicWrite (final File file, final TempFileWriter writer) throws IOException {
+
+		File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			writer.write(tempFile);
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	// Adds the bytes of the file between both offsets to the checksum (used to check that already processed rows are unchanged)
+	public static void updateChecksum (final CRC32 checksum, final File file, final long fromOffset, final long toOffset) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+			long offset = fromOffset;
+			while (offset < toOffset) {
+				((Buffer) buffer).clear();
+				((Buffer) buffer).limit((int) Math.min(buffer.capacity(), toOffset - offset));
+				int read = channel.read(buffer, offset);
+				if (read < 0) {
+					throw new EOFException("End of " + file + " at " + offset + " (expected " + toOffset + ")");
+				}
+				((Buffer) buffer).flip();
+				checksum.update(buffer);
+				offset += read;
+			}
+		}
+	}
+
+	public interface TempFileWriter {
+		void write (File tempFile) throws IOException;
+	}
+}
@@ -0,0 +1,320 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datamodel.CalcParameters;
+
+/**
+ * Binary log of the chains of a scan of a currency pair (main.chainEvents): one fixed width record per starting position.
+ * Engines write through ChainEventWriters, which reserve consecutive records of the current file and fill preallocated
+ * batches (BATCH_BYTES). Full batches are written by a background thread (chain-events-writer) with positional writes,
+ * so the engine threads (several with the parallel engine) only wait for the disk when PENDING_BATCHES are queued.
+ * Files roll over at main.chainEventsFileSizeMb: <pair>_<increase>_<decrease>_<start date>_<end date>_<nnn>.events
+ * in main.chainEventsPath (main.resultsPath when empty). See tools.ChainEventReader.
+ *
+ * File: header of HEADER_SIZE bytes (MAGIC, VERSION, header size, record size, max. levels, increase %, decrease %,
+ * max. horizon and unit, pair, start date, end date, file number) followed by the records (big endian):
+ *  - start position (int), timestamp of the start position (int, epoch minutes)
+ *  - direction (byte: NONE, UP, DOWN), levels reached (byte), end reason (byte), unused (byte)
+ *  - end position (int): bar of the last level (MAX_LEVELS), of the opposite crossing (REVERSAL) or last bar scanned
+ *  - position of the bar hitting every level (max. levels ints, -1 after the levels reached), only with
+ *    main.chainEventsLevelPositions: records are RECORD_HEADER_SIZE bytes otherwise (see the record size of the header)
+ * Positions are positions of the series calculated (first bar of the start date = 0).
+ */
+public class ChainEventLog {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(ChainEventLog.class);
+
+	public static final int MAGIC = 0x46584556; // FXEV
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 256;
+	public static final int RECORD_HEADER_SIZE = 16;
+
+	public static final byte NONE = 0;
+	public static final byte UP = 1;
+	public static final byte DOWN = 2;
+
+	public static final byte MAX_LEVELS = 1;
+	public static final byte REVERSAL = 2;
+	public static final byte HORIZON = 3;
+	public static final byte END_OF_DATA = 4;
+
+	private static final String EVENTS_FILE_EXTENSION = ".events";
+	private static final int BATCH_BYTES = 1024 * 1024;
+	private static final int PENDING_BATCHES = 16;
+
+	private final String currentCurrency;
+	private final String startDate;
+	private final String endDate;
+	private final CalcParameters params;
+	private final String filePrefix;
+	private final boolean levelPositions;
+	private final int recordSize;
+	private final int recordInts;
+	private final long fileRecords;
+
+	// Current file: channel and records reserved in it
+	private FileChannel channel;
+	private long reservedRecords;
+	private int fileNumber = -1;
+	private final List<FileChannel> channels = new ArrayList<FileChannel>();
+	private long totalRecords;
+
+	// Preallocated batches of the writers, and batches waiting to be written
+	private final ConcurrentLinkedQueue<int[]> batches = new ConcurrentLinkedQueue<int[]>();
+	private final BlockingQueue<Runnable> pendingWrites = new ArrayBlockingQueue<Runnable>(PENDING_BATCHES);
+	private final ByteBuffer buffer;
+	private Thread writerThread;
+	private volatile boolean closed = false;
+	private volatile boolean failed = false;
+
+	private ChainEventLog (final String currentCurrency, final String startDate, final String endDate, final CalcParameters params) {
+		this.currentCurrency = currentCurrency;
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.params = params;
+		this.levelPositions = ApplicationProperties.getBooleanProperty("main.chainEventsLevelPositions");
+		this.recordSize = RECORD_HEADER_SIZE + (levelPositions ? Integer.BYTES * params.getMaxLevels() : 0);
+		this.recordInts = recordSize / Integer.BYTES;
+		this.buffer = ByteBuffer.allocateDirect(getBatchRecords() * recordSize);
+		// Files are mapped by the reader: below 2 GB
+		long fileSizeMb = Math.min(2047, ApplicationProperties.getIntProperty("main.chainEventsFileSizeMb"));
+		this.fileRecords = Math.max(1, ((fileSizeMb * 1024L * 1024L) - HEADER_SIZE) / recordSize);
+		this.filePrefix = getPath() + currentCurrency + "_" + params.getIncreasePercentage() + "_" + params.getDecreasePercentage() + "_" + startDate + "_" + endDate + "_";
+	}
+
+	public static boolean isEnabled () {
+		return ApplicationProperties.getBooleanProperty("main.chainEvents");
+	}
+
+	// Events are written in main.chainEventsPath, or with the results when empty
+	public static String getPath () {
+		String eventsPath = ApplicationProperties.getStringProperty("main.chainEventsPath");
+		if (eventsPath == null || eventsPath.isEmpty()) {
+			eventsPath = ApplicationProperties.getStringProperty("main.resultsPath");
+		}
+		return eventsPath;
+	}
+
+	// Log of a scan (null when the first file cannot be created: the calculations go on without events)
+	public static ChainEventLog create (final String currentCurrency, final String startDate, final String endDate, final CalcParameters params) {
+		ChainEventLog log = new ChainEventLog(currentCurrency, startDate, endDate, params);
+		try {
+			synchronized (log) {
+				log.roll();
+			}
+			log.startWriter();
+			return log;
+		} catch (IOException e) {
+			logger.error ("Exception while creating the chain events of " + currentCurrency + ": " + e.getClass() + " - " + e.getMessage());
+			log.closeFiles();
+			return null;
+		}
+	}
+
+	// Writer of the given number of consecutive records (the chains of a range of starting positions)
+	public ChainEventWriter newWriter (final int records) {
+		return new ChainEventWriter(this, records);
+	}
+
+	// Reserves up to the given records in the current file (rolling over when full). Returns the file offset of the first
+	// one (the channel and the records actually reserved are set in the reservation)
+	synchronized Reservation reserve (final int records) throws IOException {
+		if (reservedRecords >= fileRecords) {
+			roll();
+		}
+		int reserved = (int) Math.min(records, fileRecords - reservedRecords);
+		Reservation reservation = new Reservation(channel, HEADER_SIZE + (reservedRecords * recordSize), reserved);
+		reservedRecords += reserved;
+		totalRecords += reserved;
+		return reservation;
+	}
+
+	private void roll () throws IOException {
+		fileNumber++;
+		File file = new File(filePrefix + String.format("%03d", fileNumber) + EVENTS_FILE_EXTENSION);
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.setLength(0);
+		channel = randomAccessFile.getChannel();
+		channels.add(channel);
+		reservedRecords = 0;
+
+		ByteBuffer header = ByteBuffer.wrap(getHeader());
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+		logger.debug ("Writing chain events into " + file);
+	}
+
+	private byte[] getHeader () throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE);
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeInt(HEADER_SIZE);
+		header.writeInt(recordSize);
+		header.writeInt(params.getMaxLevels());
+		header.writeFloat(params.getIncreasePercentage());
+		header.writeFloat(params.getDecreasePercentage());
+		header.writeInt(params.getMaxHorizon());
+		header.writeUTF(params.getMaxHorizonUnit());
+		header.writeUTF(currentCurrency);
+		header.writeUTF(startDate);
+		header.writeUTF(endDate);
+		header.writeInt(fileNumber);
+		header.flush();
+		if (bytes.size() > HEADER_SIZE) {
+			throw new IOException("Chain events header too long");
+		}
+		byte[] result = new byte[HEADER_SIZE];
+		System.arraycopy(bytes.toByteArray(), 0, result, 0, bytes.size());
+		return result;
+	}
+
+	// Records of a batch
+	final int getBatchRecords () {
+		return Math.max(1, BATCH_BYTES / recordSize);
+	}
+
+	// Preallocated batch of records (recordInts ints each, see ChainEventWriter)
+	int[] takeBatch () {
+		int[] batch = batches.poll();
+		return (batch != null) ? batch : new int[getBatchRecords() * recordInts];
+	}
+
+	// Queues the records of a batch to be written into their reservation (waits while PENDING_BATCHES are queued)
+	void submit (final Reservation reservation, final int[] batch, final int records) throws InterruptedException {
+		boolean queued = queue(new Runnable() {
+			@Override
+			public void run() {
+				write(reservation, batch, records);
+			}
+		});
+		if (!queued) {
+			batches.add(batch);
+		}
+	}
+
+	// Queues a write, waiting while the queue is full. False when the writer thread is not running anymore
+	// (the log fails: nobody would take it)
+	private boolean queue (final Runnable pendingWrite) throws InterruptedException {
+		while (!pendingWrites.offer(pendingWrite, 1, TimeUnit.SECONDS)) {
+			if (!writerThread.isAlive()) {
+				failed = true;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void startWriter () {
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writePending();
+			}
+		}, "chain-events-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	private void writePending () {
+		while (!closed) {
+			try {
+				pendingWrites.take().run();
+			} catch (InterruptedException e) {
+				logger.error ("Chain events writer interrupted: " + pendingWrites.size() + " batches pending");
+				failed = true;
+				return;
+			} catch (Exception e) {
+				logger.error ("Exception while writing the chain events of " + currentCurrency + ": " + e.getClass() + " - " + e.getMessage());
+			}
+		}
+	}
+
+	private void write (final Reservation reservation, final int[] batch, final int records) {
+		if (!failed) {
+			buffer.clear();
+			buffer.asIntBuffer().put(batch, 0, records * recordInts);
+			buffer.limit(records * recordSize);
+			long offset = reservation.offset;
+			try {
+				while (buffer.hasRemaining()) {
+					offset += reservation.channel.write(buffer, offset);
+				}
+			} catch (IOException e) {
+				logger.error ("Exception while writing the chain events of " + currentCurrency + ": " + e.getClass() + " - " + e.getMessage());
+				failed = true;
+			}
+		}
+		batches.add(batch);
+	}
+
+	// Writes the batches queued and closes the files, once every writer is closed
+	public void close () {
+		try {
+			boolean queued = queue(new Runnable() {
+				@Override
+				public void run() {
+					closed = true;
+				}
+			});
+			if (queued) {
+				writerThread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		closeFiles();
+	}
+
+	private synchronized void closeFiles () {
+		for (FileChannel fileChannel : channels) {
+			try {
+				fileChannel.close();
+			} catch (IOException e) {
+				logger.error ("Exception while closing the chain events of " + currentCurrency + ": " + e.getClass() + " - " + e.getMessage());
+			}
+		}
+		channels.clear();
+		batches.clear();
+		if (fileNumber >= 0) {
+			logger.info ("Chain events of " + currentCurrency + " (" + params.getIncreasePercentage() + "/" + params.getDecreasePercentage() + "): " + String.format("%,d", totalRecords) + " in " + (fileNumber + 1) + " files " + filePrefix + "*" + EVENTS_FILE_EXTENSION);
+		}
+	}
+
+	public final boolean isFailed() { return this.failed; }
+	public final int getRecordSize() { return this.recordSize; }
+	public final int getRecordInts() { return this.recordInts; }
+	public final boolean hasLevelPositions() { return this.levelPositions; }
+	public final int getMaxLevels() { return this.params.getMaxLevels(); }
+
+	// Consecutive records reserved in a file
+	static class Reservation {
+		final FileChannel channel;
+		final long offset;
+		final int records;
+
+		Reservation (final FileChannel channel, final long offset, final int records) {
+			this.channel = channel;
+			this.offset = offset;
+			this.records = records;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package utils;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writer of the chain events of a range of starting positions (one record per position, see ChainEventLog).
+ * Used by a single thread: records are put into a preallocated batch of ints (the record layout), and every full
+ * batch is queued to be written into the records reserved for it. A writer failing stops writing (the calculations go on).
+ */
+public class ChainEventWriter {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(ChainEventWriter.class);
+
+	private final ChainEventLog log;
+	// Levels with a position in the records (0 without main.chainEventsLevelPositions)
+	private final int positionLevels;
+	private final int recordInts;
+	private final int batchRecords;
+	// Records of the range not reserved yet
+	private int pendingRecords;
+
+	private int[] batch;
+	private int batchPosition;
+	private ChainEventLog.Reservation reservation;
+	private int bufferedRecords;
+	private boolean failed = false;
+
+	ChainEventWriter (final ChainEventLog log, final int records) {
+		this.log = log;
+		this.positionLevels = log.hasLevelPositions() ? log.getMaxLevels() : 0;
+		this.recordInts = log.getRecordInts();
+		this.batchRecords = log.getBatchRecords();
+		this.pendingRecords = records;
+	}
+
+	/**
+	 * @param startPosition starting position of the chain
+	 * @param timestamp timestamp of the starting position (epoch minutes)
+	 * @param direction ChainEventLog.NONE, UP or DOWN
+	 * @param levels levels reached
+	 * @param reason ChainEventLog.MAX_LEVELS, REVERSAL, HORIZON or END_OF_DATA
+	 * @param endPosition position where the chain ended
+	 * @param levelPositions position of the bar hitting every level (levels positions used, only written with main.chainEventsLevelPositions)
+	 */
+	public void write (final int startPosition, final int timestamp, final byte direction, final int levels, final byte reason, final int endPosition, final int[] levelPositions) {
+
+		if (reservation == null && !reserve()) {
+			return;
+		}
+
+		int position = batchPosition;
+		batch[position] = startPosition;
+		batch[position + 1] = timestamp;
+		// Direction, levels, reason and an unused byte (big endian)
+		batch[position + 2] = (direction << 24) | ((levels & 0xFF) << 16) | (reason << 8);
+		batch[position + 3] = endPosition;
+		position += 4;
+		for (int level=0; level<positionLevels; level++) {
+			batch[position + level] = (level < levels) ? levelPositions[level] : -1;
+		}
+		batchPosition += recordInts;
+
+		if (++bufferedRecords == reservation.records) {
+			flush();
+		}
+	}
+
+	// Queues the records buffered
+	public void close () {
+		if (reservation != null) {
+			flush();
+		}
+	}
+
+	private boolean reserve () {
+		// More records than the range (not expected) are dropped
+		if (failed || pendingRecords <= 0 || log.isFailed()) {
+			return false;
+		}
+		try {
+			reservation = log.reserve(Math.min(pendingRecords, batchRecords));
+			if (batch == null) {
+				batch = log.takeBatch();
+			}
+			pendingRecords -= reservation.records;
+			bufferedRecords = 0;
+			batchPosition = 0;
+			return true;
+		} catch (IOException e) {
+			logger.error ("Exception while writing chain events: " + e.getClass() + " - " + e.getMessage());
+			failed = true;
+			return false;
+		}
+	}
+
+	// The batch queued is returned to the log once written: the next records go into another one
+	private void flush () {
+		try {
+			log.submit(reservation, batch, bufferedRecords);
+		} catch (InterruptedException e) {
+			logger.error ("Interrupted while writing chain events");
+			Thread.currentThread().interrupt();
+			failed = true;
+		}
+		batch = null;
+		reservation = null;
+	}
+}
@@ -3,60 +3,148 @@ package utils;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Pool of database connections shared by the workers.
+ * Connections are opened on demand up to database.maxConnections (0 = workerpool.maxSize, one per worker), so
+ * concurrent workers load their tables in parallel instead of sharing a single connection. Every connection borrowed with getConnection has
+ * to be given back with releaseConnection.
+ * With database.fetchSize = 0 the rows are streamed one at a time by the MySQL driver; a greater value uses a
+ * server side cursor (useCursorFetch) returning that many rows per round trip.
+ */
 public class DatabaseConnection {
 
     private static DatabaseConnection instance;
-    private Connection connection;
     private static String databaseUrl = "jdbc:mysql://<host>:<port>/<name>";
-    private static String databaseHost;
-    private static String databasePort;
-    private static String databaseName;
     private static String databaseUser;
     private static String databasePass;
 
+    private final int maxConnections;
+    private final LinkedBlockingQueue<Connection> idleConnections = new LinkedBlockingQueue<Connection>();
+    private int openConnections = 0;
+
 	//Logger
-	private static Logger logger = LoggerFactory.getLogger(DatabaseUtils.class);
+	private static Logger logger = LoggerFactory.getLogger(DatabaseConnection.class);
 
-    private DatabaseConnection() {
+    private DatabaseConnection(final int maxConnections) {
+        this.maxConnections = maxConnections;
         try {
             Class.forName("com.mysql.jdbc.Driver");
-            logger.info ("Connecting to database..." + databaseUrl);
-            this.connection = DriverManager.getConnection(databaseUrl, databaseUser, databasePass);
         } catch (Exception ex) {
-        	logger.error ("Exception: unable to connect to database [" + databaseUrl + "]");
+        	logger.error ("Exception: MySQL driver not found");
         }
     }
 
-    public Connection getConnection() {
-        return connection;
-    }
+    public static synchronized DatabaseConnection getInstance() {
 
-    public static DatabaseConnection getInstance() throws SQLException {
-    	
-        if ((instance == null) || (instance.getConnection().isClosed())) {
-        	
-    		databaseHost = ApplicationProperties.getStringProperty("database.host");
-    		databasePort = ApplicationProperties.getStringProperty("database.port");
-    		databaseName = ApplicationProperties.getStringProperty("database.db_name");
+        if (instance == null) {
+
+    		String databaseHost = ApplicationProperties.getStringProperty("database.host");
+    		String databasePort = ApplicationProperties.getStringProperty("database.port");
+    		String databaseName = ApplicationProperties.getStringProperty("database.db_name");
     		databaseUser = ApplicationProperties.getStringProperty("database.username");
     		databasePass = ApplicationProperties.getStringProperty("database.password");
-    		
-    		databaseUrl = databaseUrl.replaceAll("<host>", databaseHost).replaceAll("<port>", databasePort).replaceAll("<name>", databaseName);
 
-            instance = new DatabaseConnection();
+    		// Batched inserts are sent as multi-row inserts (tools.HistoricalDataImporter)
+    		databaseUrl = databaseUrl.replaceAll("<host>", databaseHost).replaceAll("<port>", databasePort).replaceAll("<name>", databaseName) + "?rewriteBatchedStatements=true";
+    		if (getFetchSize() > 0) {
+    			databaseUrl += "&useCursorFetch=true";
+    		}
+
+            String maxConnections = ApplicationProperties.getStringProperty("database.maxConnections");
+            if (maxConnections == null || maxConnections.isEmpty() || Integer.parseInt(maxConnections) <= 0) {
+            	maxConnections = ApplicationProperties.getStringProperty("workerpool.maxSize");
+            }
+            instance = new DatabaseConnection(Math.max(1, Integer.parseInt(maxConnections)));
         }
         return instance;
     }
-    
-	public static void closeConnection () {
-	    if (instance != null && instance.connection != null) {
-	        try {
-	        	instance.getConnection().close();
-	        } catch (SQLException e) { /* ignored */}
+
+    // Rows per round trip of the historical rates queries (database.fetchSize). 0 streams the rows one at a time
+    public static int getFetchSize() {
+    	String fetchSize = ApplicationProperties.getStringProperty("database.fetchSize");
+    	return (fetchSize == null || fetchSize.isEmpty()) ? 0 : Integer.parseInt(fetchSize);
+    }
+
+    // Returns an idle connection, opens a new one, or waits for one to be released when all of them are in use
+    public Connection getConnection() throws SQLException, InterruptedException {
+
+    	Connection connection = idleConnections.poll();
+
+    	while (connection == null || connection.isClosed()) {
+    		if (connection != null) {
+    			// Closed by the server while idle
+    			discardConnection(connection);
+    		}
+    		if (reserveConnection()) {
+    			connection = openConnection();
+    		} else {
+    			// Checks again for a free slot every second (connections that failed or were discarded)
+    			connection = idleConnections.poll(1, TimeUnit.SECONDS);
+    		}
+    	}
+        return connection;
+    }
+
+    // Gives back a connection borrowed with getConnection (ignored when null)
+    public void releaseConnection(final Connection connection) {
+    	if (connection != null) {
+    		idleConnections.offer(connection);
+    	}
+    }
+
+    private synchronized boolean reserveConnection() {
+    	if (openConnections < maxConnections) {
+    		openConnections++;
+    		return true;
+    	}
+    	return false;
+    }
+
+    private Connection openConnection() throws SQLException {
+    	try {
+    		return createConnection();
+    	} catch (SQLException ex) {
+    		synchronized (this) {
+    			openConnections--;
+    		}
+    		throw ex;
+    	}
+    }
+
+    // Opens a connection out of the pool (to be closed by the caller)
+    public static Connection createConnection() throws SQLException {
+    	getInstance();
+    	try {
+    		logger.info ("Connecting to database..." + databaseUrl);
+    		return DriverManager.getConnection(databaseUrl, databaseUser, databasePass);
+    	} catch (SQLException ex) {
+    		logger.error ("Exception: unable to connect to database [" + databaseUrl + "]");
+    		throw ex;
+    	}
+    }
+
+    private void discardConnection(final Connection connection) {
+    	try {
+    		connection.close();
+    	} catch (SQLException e) { /* ignored */}
+		synchronized (this) {
+			openConnections--;
+		}
+    }
+
+	// Closes the idle connections (every connection once the workers have finished)
+	public static synchronized void closeConnection () {
+	    if (instance != null) {
+	    	Connection connection;
+	    	while ((connection = instance.idleConnections.poll()) != null) {
+	    		instance.discardConnection(connection);
+	    	}
 	    }
 	}
-}
\ No newline at end of file
+}
@@ -1,100 +1,176 @@
 package utils;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import datamodel.FxRate;
+import datamodel.FxRateConsumer;
+import datamodel.FxSeries;
 
 public class DatabaseUtils {
-	
+
 	//Logger
 	private static Logger logger = LoggerFactory.getLogger(DatabaseUtils.class);
-	
 
-	public static Map<String,List<FxRate>> getHistoricalRates (final String currentCurrency, final String startDate, final String endDate) {
- 
-		Statement stmt = null;
+
+	// Historical rates between startDate and endDate. Returns null if they cannot be retrieved (not a partial series)
+	public static FxSeries getHistoricalRates (final String currentCurrency, final String startDate, final String endDate) {
+
+		FxSeries series = new FxSeries(currentCurrency);
+		if (getHistoricalRates(currentCurrency, startDate, endDate, series) < 0) {
+			return null;
+		}
+		series.trimToSize();
+
+		return series;
+	}
+
+	// Passes the historical rates to the consumer as they are retrieved. Returns the number of rates, or -1 on errors
+	// (i.e. a connection lost while streaming, after passing some rates: they are not the whole series)
+	public static long getHistoricalRates (final String currentCurrency, final String startDate, final String endDate, final FxRateConsumer consumer) {
+
+		Connection connection = null;
+		PreparedStatement stmt = null;
 		String sql = null;
 		ResultSet rs = null;
 
-		Map<String,List<FxRate>> resultMap = new HashMap<String,List<FxRate>>();
-		
+		long rows = 0;
+
 		try {
 			logger.info ("Retrieving historical rates from database for " + currentCurrency);
-			stmt = DatabaseConnection.getInstance().getConnection().createStatement();
-			sql = "SELECT * FROM historico_" + currentCurrency + " WHERE fecha >= STR_TO_DATE('" + startDate + "','%Y-%m-%d') AND fecha <= STR_TO_DATE('" + endDate + "','%Y-%m-%d') ORDER BY fecha ASC, hora ASC";
+			connection = DatabaseConnection.getInstance().getConnection();
+
+			sql = "SELECT fecha, hora, apertura, alto, bajo, cerrar FROM " + getTableName(currentCurrency) + " WHERE fecha >= ? AND fecha <= ? ORDER BY fecha ASC, hora ASC";
 
-			rs = stmt.executeQuery(sql);
+			// Rows are streamed by the MySQL driver (one at a time, or database.fetchSize per round trip with a
+			// server side cursor) instead of retrieving the whole result set into memory
+			stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize((DatabaseConnection.getFetchSize() > 0) ? DatabaseConnection.getFetchSize() : Integer.MIN_VALUE);
+			stmt.setDate(1, java.sql.Date.valueOf(startDate));
+			stmt.setDate(2, java.sql.Date.valueOf(endDate));
 
-			int positionId = 0;
+			rs = stmt.executeQuery();
 
 			while(rs.next()) {
-				//Retrieve by column name
-				String conversionDate = rs.getString("fecha");
-				String conversionTime = rs.getString("hora");
-				float open = rs.getFloat("apertura");
-				float high = rs.getFloat("alto");
-				float low = rs.getFloat("bajo");
-				float close = rs.getFloat("cerrar");
-
-				if (!resultMap.containsKey(currentCurrency)) {
-					resultMap.put(currentCurrency, new ArrayList<FxRate>());
-				}
-				(resultMap.get(currentCurrency)).add(new FxRate(positionId, currentCurrency, conversionDate, conversionTime, open, high, low, close));
-				positionId++;
+				//Retrieve by column index (same order as the query)
+				String conversionDate = rs.getString(1);
+				String conversionTime = rs.getString(2);
+				float open = rs.getFloat(3);
+				float high = rs.getFloat(4);
+				float low = rs.getFloat(5);
+				float close = rs.getFloat(6);
+
+				consumer.add(GeneralUtils.getEpochMinutes(conversionDate, conversionTime), open, high, low, close);
+				rows++;
 			}
 			rs.close();
 		} catch(Exception e) {
 			//Handle errors for Class.forName
-			logger.error ("Exception: " + e.getClass() + " - " + e.getMessage());
+			logger.error ("Exception: " + e.getClass() + " - " + e.getMessage() + " (" + rows + " rates retrieved)");
+			rows = -1;
 		} finally {
 			//finally block used to close resources
-			try {
-				if (rs != null) {
-					rs.close();
-				}
-			} catch (SQLException e) {
-				logger.error ("SQLException: " + e.getClass() + " - " + e.getMessage());
+			close(rs, stmt, connection);
+		}
+		return rows;
+	}
+
+	// Row count and checksum of the historical rates between startDate and endDate (fingerprint of the result cache)
+	// Returns null if they cannot be retrieved
+	public static String getHistoricalRatesChecksum (final String currentCurrency, final String startDate, final String endDate) {
+
+		Connection connection = null;
+		PreparedStatement stmt = null;
+		String sql = null;
+		ResultSet rs = null;
+
+		String checksum = null;
+
+		try {
+			connection = DatabaseConnection.getInstance().getConnection();
+
+			sql = "SELECT COUNT(*) AS total, MIN(fecha) AS first, MAX(fecha) AS last, SUM(apertura + alto + bajo + cerrar) AS checksum FROM " + getTableName(currentCurrency) + " WHERE fecha >= ? AND fecha <= ?";
+
+			stmt = connection.prepareStatement(sql);
+			stmt.setDate(1, java.sql.Date.valueOf(startDate));
+			stmt.setDate(2, java.sql.Date.valueOf(endDate));
+
+			rs = stmt.executeQuery();
+
+			if (rs.next()) {
+				checksum = rs.getLong("total") + "|" + rs.getString("first") + "|" + rs.getString("last") + "|" + rs.getString("checksum");
 			}
+			rs.close();
+		} catch(Exception e) {
+			logger.error ("Exception while calculating the checksum of " + currentCurrency + ": " + e.getClass() + " - " + e.getMessage());
+		} finally {
+			//finally block used to close resources
+			close(rs, stmt, connection);
+		}
+		return checksum;
+	}
 
-			try {
-				if (stmt != null) {
-					stmt.close();
-				}
-			} catch (SQLException e) {
-				logger.error ("Exception: " + e.getClass() + " - " + e.getMessage());
+	// Number of rates between startDate and endDate, -1 on errors
+	public static long getHistoricalRatesCount (final String currentCurrency, final String startDate, final String endDate) {
+
+		Connection connection = null;
+		PreparedStatement stmt = null;
+		String sql = null;
+		ResultSet rs = null;
+
+		long count = -1;
+
+		try {
+			connection = DatabaseConnection.getInstance().getConnection();
+
+			sql = "SELECT COUNT(*) AS total FROM " + getTableName(currentCurrency) + " WHERE fecha >= ? AND fecha <= ?";
+
+			stmt = connection.prepareStatement(sql);
+			stmt.setDate(1, java.sql.Date.valueOf(startDate));
+			stmt.setDate(2, java.sql.Date.valueOf(endDate));
+
+			rs = stmt.executeQuery();
+
+			if (rs.next()) {
+				count = rs.getLong("total");
 			}
+			rs.close();
+		} catch(Exception e) {
+			logger.error ("Exception while counting the historical rates of " + currentCurrency + ": " + e.getClass() + " - " + e.getMessage());
+		} finally {
+			//finally block used to close resources
+			close(rs, stmt, connection);
 		}
-		return resultMap;
+		return count;
 	}
-	
+
 	public static boolean checkCurrencyTableExists (final String currentCurrency) {
-		 
-		Statement stmt = null;
+
+		Connection connection = null;
+		PreparedStatement stmt = null;
 		String sql = null;
 		ResultSet rs = null;
 
 		boolean exists = false;
-		
+
 		try {
 			logger.info ("Checking if currency table exists for " + currentCurrency);
-			
-			stmt = DatabaseConnection.getInstance().getConnection().createStatement();
-			
-			sql = "SELECT UPPER(SUBSTRING(table_name, 11)) as 'currency' FROM information_schema.TABLES WHERE table_name like 'historico_" + currentCurrency + "' AND data_length > 0";
-			logger.info("Executing query: " + sql);
-			
+
+			connection = DatabaseConnection.getInstance().getConnection();
+
+			sql = "SELECT UPPER(SUBSTRING(table_name, 11)) as 'currency' FROM information_schema.TABLES WHERE table_name like ? AND data_length > 0";
+			logger.info("Executing query: " + sql + " [historico_" + currentCurrency + "]");
+
 			try {
-			
-				rs = stmt.executeQuery(sql);
+
+				stmt = connection.prepareStatement(sql);
+				stmt.setString(1, "historico_" + currentCurrency);
+
+				rs = stmt.executeQuery();
 
 				while(rs.next()) {
 					//Retrieve currency name
@@ -108,29 +184,57 @@ public class DatabaseUtils {
 				logger.error ("Exception while executing " + sql);
 				logger.debug ("Exception: " + e.getClass() + " - " + e.getMessage());
 			}
-	
+
 		} catch(Exception e) {
 			//Handle errors for Class.forName
 			logger.error ("Exception while checking if currency table exists for " + currentCurrency);
 			logger.debug ("Exception: " + e.getClass() + " - " + e.getMessage());
 		} finally {
 			//finally block used to close resources
-			try {
-				if (rs != null) {
-					rs.close();
-				}
-			} catch (SQLException e) {
-				logger.error ("SQLException: " + e.getClass() + " - " + e.getMessage());
+			close(rs, stmt, connection);
+		}
+		return exists;
+	}
+
+	// Creates the historical rates table of the currency pair when it does not exist (same columns as the queries)
+	public static String getCreateTableSql (final String currentCurrency, final int decimals) {
+		return "CREATE TABLE IF NOT EXISTS `" + getTableName(currentCurrency) + "` (\n"
+			+ "  `fecha` date NOT NULL,\n"
+			+ "  `hora` time NOT NULL,\n"
+			+ "  `apertura` decimal(12," + decimals + ") NOT NULL,\n"
+			+ "  `alto` decimal(12," + decimals + ") NOT NULL,\n"
+			+ "  `bajo` decimal(12," + decimals + ") NOT NULL,\n"
+			+ "  `cerrar` decimal(12," + decimals + ") NOT NULL,\n"
+			+ "  PRIMARY KEY (`fecha`,`hora`)\n"
+			+ ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+	}
+
+	// Table names cannot be bound as parameters: only letters, digits and underscores are accepted
+	public static String getTableName (final String currentCurrency) {
+		if (!currentCurrency.matches("[A-Za-z0-9_]+")) {
+			throw new IllegalArgumentException("Invalid currency pair: " + currentCurrency);
+		}
+		return "historico_" + currentCurrency;
+	}
+
+	// Closes the result set and the statement, and gives the connection back to the pool
+	private static void close (final ResultSet rs, final PreparedStatement stmt, final Connection connection) {
+		try {
+			if (rs != null) {
+				rs.close();
 			}
+		} catch (SQLException e) {
+			logger.error ("SQLException: " + e.getClass() + " - " + e.getMessage());
+		}
 
-			try {
-				if (stmt != null) {
-					stmt.close();
-				}
-			} catch (SQLException e) {
-				logger.error ("Exception: " + e.getClass() + " - " + e.getMessage());
+		try {
+			if (stmt != null) {
+				stmt.close();
 			}
+		} catch (SQLException e) {
+			logger.error ("Exception: " + e.getClass() + " - " + e.getMessage());
 		}
-		return exists;
+
+		DatabaseConnection.getInstance().releaseConnection(connection);
 	}
-}
\ No newline at end of file
+}
@@ -1,16 +1,12 @@
 package utils;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -34,10 +30,33 @@ public class GeneralUtils {
 		return result;
 	}
 
+	// Returns the minutes since epoch for a date (yyyy-MM-dd) and time (HH:mm or HH:mm:ss)
+	public static final int getEpochMinutes(final String date, final String time) {
+		long epochDay = LocalDate.parse(date).toEpochDay();
+		int hours = Integer.parseInt(time.substring(0, 2));
+		int minutes = Integer.parseInt(time.substring(3, 5));
+		return (int) ((epochDay * 1440) + (hours * 60) + minutes);
+	}
+
+	// HH:mm of every minute of the day (index = minute of the day)
+	public static String[] getTimes () {
+		String[] times = new String[1440];
+		for (int i=0; i<times.length; i++) {
+			times[i] = String.format("%02d:%02d", i / 60, i % 60);
+		}
+		return times;
+	}
+
+	// A valid binary cache is preferred over the historical data file. It is enough on its own: a cache without
+	// source file is valid (see HistoricalDataCache), so pairs can be distributed as cache files only
 	public static boolean checkIfFileExists (final String currentCurrency) {
 
 		boolean exists = false;
 
+		if (HistoricalDataCache.isEnabled() && HistoricalDataCache.isValid(currentCurrency)) {
+			return true;
+		}
+
 		String historicalDataPath = ApplicationProperties.getStringProperty("main.historicalDataPath");
 		String historicalDataFileExtension = ApplicationProperties.getStringProperty("main.historicalDataFileExtension");
 
@@ -84,25 +103,12 @@ public class GeneralUtils {
 		return (millis + " ms - (" + hours + " hrs " + minutes + " min " + seconds + " secs)");
 	}
 
-	
-	// Wirte text to file 
-	public static void writeTextToFile (final Path path, final String text) {
-
-		BufferedWriter bWriter = null;
-
-		try {
-		    Files.write(path, Arrays.asList(text), StandardCharsets.UTF_8,
-		        Files.exists(path) ? StandardOpenOption.APPEND : StandardOpenOption.CREATE);
-		} catch (Exception e) {
-			logger.error ("Exception while writing the results to file: " + e.getClass() + " - " + e.getMessage());
-		} finally {
-			try {
-				if (bWriter != null)
-					bWriter.close();
-			} catch (IOException ex) {
-				logger.error ("Exception while closing the results file: " + ex.getClass() + " - " + ex.getMessage());
-			}
+	// CPU time (ns) used by the process (all its threads), -1 when the JVM does not provide it
+	public static long getProcessCpuTime () {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
 		}
-
+		return -1;
 	}
 }
@@ -0,0 +1,239 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datamodel.FxRateConsumer;
+import datamodel.FxSeries;
+
+/**
+ * Binary cache of the historical data files.
+ * Every currency pair is stored once, with all its positions, in a file with a fixed header followed by the
+ * timestamp, open, high, low and close columns (little endian). The file is memory-mapped when read, and only
+ * the positions within the requested dates are copied.
+ * The header keeps the size and last modification time of the source file: when they don't match, the cache
+ * is stale and has to be rebuilt. A cache without source file is considered valid: pairs can be distributed as
+ * cache files only (the pair exists, but the cache cannot be rebuilt if it turns out to be corrupt).
+ *
+ * Header: magic (int), version (int), source size (long), source last modified (long), positions (int), reserved
+ */
+public class HistoricalDataCache {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(HistoricalDataCache.class);
+
+	private static final int MAGIC = 0x46584243; // FXBC
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final String CACHE_FILE_EXTENSION = ".fxbin";
+
+	public static boolean isEnabled () {
+		return ApplicationProperties.getBooleanProperty("main.historicalDataCache");
+	}
+
+	public static File getSourceFile (final String currentCurrency) {
+		String historicalDataPath = ApplicationProperties.getStringProperty("main.historicalDataPath");
+		String historicalDataFileExtension = ApplicationProperties.getStringProperty("main.historicalDataFileExtension");
+		return new File(historicalDataPath + currentCurrency + historicalDataFileExtension);
+	}
+
+	public static File getCacheFile (final String currentCurrency) {
+		return CacheFiles.getCacheFile(currentCurrency, CACHE_FILE_EXTENSION);
+	}
+
+	public static boolean isValid (final String currentCurrency) {
+
+		boolean valid = false;
+
+		File cacheFile = getCacheFile(currentCurrency);
+		File sourceFile = getSourceFile(currentCurrency);
+
+		if (cacheFile.isFile()) {
+			try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r")) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				file.getChannel().read(header, 0);
+
+				if (CacheFiles.isFormatValid(header, MAGIC, VERSION)) {
+					valid = !sourceFile.isFile() || CacheFiles.isHeaderValid(header, MAGIC, VERSION, sourceFile);
+				}
+			} catch (IOException e) {
+				logger.error ("Exception while reading the cache header of " + currentCurrency + ": " + e.getClass() + " - " + e.getMessage());
+			}
+			if (!valid) {
+				logger.debug ("Stale historical data cache for " + currentCurrency + " (" + cacheFile + ")");
+			}
+		}
+		return valid;
+	}
+
+	// Number of positions of the cache file (from its header), -1 if it cannot be read
+	public static int getPositions (final String currentCurrency) {
+
+		int positions = -1;
+
+		try (RandomAccessFile file = new RandomAccessFile(getCacheFile(currentCurrency), "r")) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			file.getChannel().read(header, 0);
+			if (header.getInt(0) == MAGIC) {
+				positions = header.getInt(24);
+			}
+		} catch (IOException e) {
+			logger.error ("Exception while reading the cache header of " + currentCurrency + ": " + e.getClass() + " - " + e.getMessage());
+		}
+		return positions;
+	}
+
+	// Returns the positions between startDate and endDate (yyyy-MM-dd, both included)
+	public static FxSeries read (final String currentCurrency, final String startDate, final String endDate) throws IOException {
+
+		File cacheFile = getCacheFile(currentCurrency);
+
+		try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r")) {
+			MappedByteBuffer buffer = map(cacheFile, file);
+
+			int size = buffer.getInt(24);
+			IntBuffer timestamps = getColumn(buffer, 0, size).asIntBuffer();
+
+			int fromPosition = getPosition(timestamps, size, GeneralUtils.getEpochMinutes(startDate, "00:00"));
+			int toPosition = getPosition(timestamps, size, GeneralUtils.getEpochMinutes(endDate, "00:00") + 1440);
+			int length = toPosition - fromPosition;
+
+			int[] timestampValues = new int[length];
+			((Buffer) timestamps).position(fromPosition);
+			timestamps.get(timestampValues);
+
+			float[] open = readFloats(getColumn(buffer, 1, size).asFloatBuffer(), fromPosition, length);
+			float[] high = readFloats(getColumn(buffer, 2, size).asFloatBuffer(), fromPosition, length);
+			float[] low = readFloats(getColumn(buffer, 3, size).asFloatBuffer(), fromPosition, length);
+			float[] close = readFloats(getColumn(buffer, 4, size).asFloatBuffer(), fromPosition, length);
+
+			logger.info ("Historical data for " + currentCurrency + " read from cache " + cacheFile + " (" + length + " of " + size + " positions)");
+			return new FxSeries(currentCurrency, timestampValues, open, high, low, close);
+		}
+	}
+
+	// Passes the positions between startDate and endDate (yyyy-MM-dd, both included) to the consumer, one at a time,
+	// straight from the mapped file. Returns the number of positions read
+	public static long read (final String currentCurrency, final String startDate, final String endDate, final FxRateConsumer consumer) throws IOException {
+
+		File cacheFile = getCacheFile(currentCurrency);
+
+		try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r")) {
+			MappedByteBuffer buffer = map(cacheFile, file);
+
+			int size = buffer.getInt(24);
+			IntBuffer timestamps = getColumn(buffer, 0, size).asIntBuffer();
+			FloatBuffer open = getColumn(buffer, 1, size).asFloatBuffer();
+			FloatBuffer high = getColumn(buffer, 2, size).asFloatBuffer();
+			FloatBuffer low = getColumn(buffer, 3, size).asFloatBuffer();
+			FloatBuffer close = getColumn(buffer, 4, size).asFloatBuffer();
+
+			int fromPosition = getPosition(timestamps, size, GeneralUtils.getEpochMinutes(startDate, "00:00"));
+			int toPosition = getPosition(timestamps, size, GeneralUtils.getEpochMinutes(endDate, "00:00") + 1440);
+
+			for (int i=fromPosition; i<toPosition; i++) {
+				consumer.add(timestamps.get(i), open.get(i), high.get(i), low.get(i), close.get(i));
+			}
+
+			logger.info ("Historical data for " + currentCurrency + " streamed from cache " + cacheFile + " (" + (toPosition - fromPosition) + " of " + size + " positions)");
+			return toPosition - fromPosition;
+		}
+	}
+
+	// Writes the whole series of the source file into the cache
+	public static void write (final FxSeries series, final File sourceFile) {
+
+		File cacheFile = getCacheFile(series.getCurrencyPair());
+		final int size = series.size();
+
+		try {
+			CacheFiles.atomicWrite(cacheFile, new CacheFiles.TempFileWriter() {
+				@Override
+				public void write (final File tempFile) throws IOException {
+					try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+						FileChannel channel = file.getChannel();
+						MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (20L * size));
+						buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+						CacheFiles.putHeader(buffer, MAGIC, VERSION, sourceFile);
+						buffer.putInt(24, size);
+
+						getColumn(buffer, 0, size).asIntBuffer().put(series.getTimestamps(), 0, size);
+						getColumn(buffer, 1, size).asFloatBuffer().put(series.getOpen(), 0, size);
+						getColumn(buffer, 2, size).asFloatBuffer().put(series.getHigh(), 0, size);
+						getColumn(buffer, 3, size).asFloatBuffer().put(series.getLow(), 0, size);
+						getColumn(buffer, 4, size).asFloatBuffer().put(series.getClose(), 0, size);
+						buffer.force();
+					}
+				}
+			});
+			logger.info ("Historical data cache written for " + series.getCurrencyPair() + ": " + cacheFile + " (" + size + " positions)");
+		} catch (Exception e) {
+			logger.error ("Exception while writing the historical data cache for " + series.getCurrencyPair() + ": " + e.getClass() + " - " + e.getMessage());
+		}
+	}
+
+	// Maps the whole cache file. A file too short for its positions (truncated) is rejected before reading any of them
+	private static MappedByteBuffer map (final File cacheFile, final RandomAccessFile file) throws IOException {
+		FileChannel channel = file.getChannel();
+		if (channel.size() < HEADER_SIZE) {
+			throw new IOException("Truncated historical data cache " + cacheFile);
+		}
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int size = buffer.getInt(24);
+		if (size < 0 || channel.size() < HEADER_SIZE + (20L * size)) {
+			throw new IOException("Truncated historical data cache " + cacheFile + " (" + size + " positions)");
+		}
+		return buffer;
+	}
+
+	// Removes the cache file of the currency pair (rebuilt by the next load)
+	public static void delete (final String currentCurrency) {
+		File cacheFile = getCacheFile(currentCurrency);
+		if (cacheFile.delete()) {
+			logger.info ("Historical data cache removed for " + currentCurrency + ": " + cacheFile);
+		}
+	}
+
+	// Byte buffer over a single column: 0 = timestamps, 1 = open, 2 = high, 3 = low, 4 = close
+	private static ByteBuffer getColumn (final ByteBuffer buffer, final int column, final int size) {
+		ByteBuffer columnBuffer = buffer.duplicate();
+		((Buffer) columnBuffer).position(HEADER_SIZE + (column * 4 * size));
+		((Buffer) columnBuffer).limit(HEADER_SIZE + ((column + 1) * 4 * size));
+		return columnBuffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static float[] readFloats (final FloatBuffer column, final int fromPosition, final int length) {
+		float[] values = new float[length];
+		((Buffer) column).position(fromPosition);
+		column.get(values);
+		return values;
+	}
+
+	// First position with timestamp >= the given one
+	private static int getPosition (final IntBuffer timestamps, final int size, final int timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps.get(middle) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,324 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sidecar date index of the historical data files.
+ * Keeps the byte offset and line number of the first row of every date, so a date range can be loaded seeking
+ * straight to its first row and stopping after its last one, instead of parsing the whole file.
+ * Like the binary cache, the index keeps the size and last modification time of the source file. When they don't
+ * match, but the file still starts with the rows indexed (same checksum of the indexed bytes), only the rows appended
+ * since then are indexed; otherwise the index is rebuilt. Files whose dates are not in ascending order (or not yyyy-MM-dd at the beginning of
+ * every row) are flagged as not seekable and always read entirely.
+ * The binary cache wins when enabled (main.historicalDataCache): the index is then only used by streaming runs
+ * without a valid cache and by the first incremental run, as rebuilding the cache reads the whole file.
+ *
+ * Header: magic (int), version (int), source size (long), source last modified (long), dates (int), seekable (int),
+ *  indexed length (long, up to the last line break), line number after it (int), checksum of the indexed bytes (long), reserved
+ * Entries: date as yyyyMMdd (int), line number (int), byte offset (long)
+ */
+public class HistoricalDataIndex {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(HistoricalDataIndex.class);
+
+	private static final int MAGIC = 0x46584958; // FXIX
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 64;
+	private static final int ENTRY_SIZE = 16;
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final String INDEX_FILE_EXTENSION = ".idx";
+
+	private final boolean seekable;
+	private final int[] dates;
+	private final int[] lineNumbers;
+	private final long[] offsets;
+	// Complete lines indexed: length up to the last line break, line number of the next row and checksum of the length
+	private final long indexedLength;
+	private final int nextLineNumber;
+	private final long checksum;
+	// Written for the current size and last modification time of the source file
+	private boolean current = true;
+
+	private HistoricalDataIndex (final boolean seekable, final int[] dates, final int[] lineNumbers, final long[] offsets, final long indexedLength, final int nextLineNumber, final long checksum) {
+		this.seekable = seekable;
+		this.dates = dates;
+		this.lineNumbers = lineNumbers;
+		this.offsets = offsets;
+		this.indexedLength = indexedLength;
+		this.nextLineNumber = nextLineNumber;
+		this.checksum = checksum;
+	}
+
+	public static boolean isEnabled () {
+		return ApplicationProperties.getBooleanProperty("main.historicalDataIndex");
+	}
+
+	public static File getIndexFile (final String currentCurrency) {
+		return CacheFiles.getCacheFile(currentCurrency, INDEX_FILE_EXTENSION);
+	}
+
+	// Returns the index of the currency pair file, built on first use or when the file has changed. Null if it cannot be built
+	public static HistoricalDataIndex get (final String currentCurrency) {
+
+		File indexFile = getIndexFile(currentCurrency);
+		File sourceFile = HistoricalDataCache.getSourceFile(currentCurrency);
+
+		HistoricalDataIndex index = null;
+
+		try {
+			index = read(indexFile, sourceFile);
+			if (index == null || !index.current) {
+				long startTime = System.currentTimeMillis();
+				CRC32 indexedChecksum = (index != null) ? index.getAppendedChecksum(sourceFile) : null;
+				boolean appended = (indexedChecksum != null);
+				index = appended ? build(sourceFile, index, indexedChecksum) : build(sourceFile, null, new CRC32());
+				write(index, indexFile, sourceFile);
+				logger.info ("Historical data index " + (appended ? "extended" : "written") + " for " + currentCurrency + ": " + indexFile + " (" + index.dates.length + " dates" + (index.seekable ? "" : ", not seekable") + ") in " + (System.currentTimeMillis() - startTime) + " ms");
+			}
+		} catch (Exception e) {
+			logger.error ("Exception while building the historical data index for " + currentCurrency + ": " + e.getClass() + " - " + e.getMessage());
+			index = null;
+		}
+		return index;
+	}
+
+	public final boolean isSeekable() { return seekable; }
+
+	// Byte offset of the first row dated on or after the given date (yyyy-MM-dd). -1 if there is none
+	public final long getOffset(final String date) {
+		int entry = getEntry(date);
+		return (entry < offsets.length) ? offsets[entry] : -1;
+	}
+
+	// Line number (starting at 1) of the row returned by getOffset. -1 if there is none
+	public final int getLineNumber(final String date) {
+		int entry = getEntry(date);
+		return (entry < lineNumbers.length) ? lineNumbers[entry] : -1;
+	}
+
+	// Length of the file indexed, up to its last line break, and line number of the row starting there
+	public final long getIndexedLength() { return indexedLength; }
+	public final int getNextLineNumber() { return nextLineNumber; }
+
+	// Checksum of the indexed bytes when the file still starts with them (only rows appended since), null otherwise
+	private CRC32 getAppendedChecksum (final File sourceFile) throws IOException {
+		if (!seekable || sourceFile.length() < indexedLength) {
+			return null;
+		}
+		CRC32 indexedChecksum = new CRC32();
+		CacheFiles.updateChecksum(indexedChecksum, sourceFile, 0, indexedLength);
+		return (indexedChecksum.getValue() == checksum) ? indexedChecksum : null;
+	}
+
+	// First entry with date >= the given one
+	private int getEntry (final String date) {
+		int key = Integer.parseInt(date.replace("-", ""));
+		int low = 0;
+		int high = dates.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (dates[middle] < key) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// Returns null when the index file is missing or of another version (flagged as not current when stale)
+	private static HistoricalDataIndex read (final File indexFile, final File sourceFile) throws IOException {
+
+		if (!indexFile.isFile()) {
+			return null;
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			channel.read(header, 0);
+
+			if (!CacheFiles.isFormatValid(header, MAGIC, VERSION)) {
+				logger.debug ("Unknown historical data index " + indexFile);
+				return null;
+			}
+
+			int count = header.getInt(24);
+			boolean seekable = (header.getInt(28) != 0);
+			if (count < 0 || channel.size() < HEADER_SIZE + ((long) count * ENTRY_SIZE)) {
+				logger.debug ("Truncated historical data index " + indexFile);
+				return null;
+			}
+
+			ByteBuffer entries = ByteBuffer.allocate(count * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (entries.hasRemaining() && channel.read(entries, HEADER_SIZE + entries.position()) >= 0);
+			((Buffer) entries).flip();
+
+			int[] dates = new int[count];
+			int[] lineNumbers = new int[count];
+			long[] offsets = new long[count];
+			for (int i=0; i<count; i++) {
+				dates[i] = entries.getInt();
+				lineNumbers[i] = entries.getInt();
+				offsets[i] = entries.getLong();
+			}
+			HistoricalDataIndex index = new HistoricalDataIndex(seekable, dates, lineNumbers, offsets, header.getLong(32), header.getInt(40), header.getLong(48));
+			index.current = CacheFiles.isHeaderValid(header, MAGIC, VERSION, sourceFile);
+			if (!index.current) {
+				logger.debug ("Stale historical data index " + indexFile);
+			}
+			return index;
+		}
+	}
+
+	private static void write (final HistoricalDataIndex index, final File indexFile, final File sourceFile) throws IOException {
+
+		int count = index.dates.length;
+
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (count * ENTRY_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+		CacheFiles.putHeader(buffer, MAGIC, VERSION, sourceFile);
+		buffer.putInt(24, count);
+		buffer.putInt(28, index.seekable ? 1 : 0);
+		buffer.putLong(32, index.indexedLength);
+		buffer.putInt(40, index.nextLineNumber);
+		buffer.putLong(48, index.checksum);
+
+		((Buffer) buffer).position(HEADER_SIZE);
+		for (int i=0; i<count; i++) {
+			buffer.putInt(index.dates[i]);
+			buffer.putInt(index.lineNumbers[i]);
+			buffer.putLong(index.offsets[i]);
+		}
+		((Buffer) buffer).flip();
+
+		CacheFiles.atomicWrite(indexFile, new CacheFiles.TempFileWriter() {
+			@Override
+			public void write (final File tempFile) throws IOException {
+				try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+				}
+			}
+		});
+	}
+
+	// Scans the file recording where every date starts (from the end of the previous index, when given, whose indexed
+	// bytes are in the checksum). Only the first 10 bytes of every row are looked at
+	private static HistoricalDataIndex build (final File sourceFile, final HistoricalDataIndex previous, final CRC32 indexedChecksum) throws IOException {
+
+		IndexBuilder builder = new IndexBuilder(previous);
+
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		byte[] bytes = buffer.array();
+
+		long offset = (previous != null) ? previous.indexedLength : 0;
+		long lineStart = offset;
+		int lineNumber = (previous != null) ? previous.nextLineNumber : 1;
+		long checksumOffset = offset;
+		int column = 0;
+		int date = 0;
+		boolean validDate = true;
+
+		try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+
+			channel.position(offset);
+			int read;
+			while (builder.seekable && (read = channel.read(buffer)) >= 0) {
+
+				for (int i=0; i<read; i++, offset++) {
+					byte b = bytes[i];
+
+					if (b == '\n') {
+						builder.addRow(column, validDate, date, lineNumber, lineStart);
+						lineNumber++;
+						lineStart = offset + 1;
+						column = 0;
+						date = 0;
+						validDate = true;
+					} else if (b == '\r' && column == 0) {
+						// Empty line
+					} else {
+						if (column < 10) {
+							if (column == 4 || column == 7) {
+								validDate &= (b == '-');
+							} else if (b >= '0' && b <= '9') {
+								date = (date * 10) + (b - '0');
+							} else {
+								validDate = false;
+							}
+						}
+						column++;
+					}
+				}
+				((Buffer) buffer).clear();
+			}
+		}
+
+		// Last row without line break (indexed again with the rows appended after it)
+		builder.addRow(column, validDate, date, lineNumber, lineStart);
+
+		CacheFiles.updateChecksum(indexedChecksum, sourceFile, checksumOffset, lineStart);
+		return builder.build(lineStart, lineNumber, indexedChecksum.getValue());
+	}
+
+	private static class IndexBuilder {
+
+		private int[] dates = new int[1024];
+		private int[] lineNumbers = new int[1024];
+		private long[] offsets = new long[1024];
+		private int count = 0;
+		private boolean seekable = true;
+
+		// Starts with the entries of the previous index (null: empty)
+		private IndexBuilder (final HistoricalDataIndex previous) {
+			if (previous != null) {
+				count = previous.dates.length;
+				dates = Arrays.copyOf(previous.dates, Math.max(1024, count * 2));
+				lineNumbers = Arrays.copyOf(previous.lineNumbers, dates.length);
+				offsets = Arrays.copyOf(previous.offsets, dates.length);
+			}
+		}
+
+		// Records the row when it starts a new date. Rows must start with an ascending yyyy-MM-dd date
+		private void addRow (final int length, final boolean validDate, final int date, final int lineNumber, final long offset) {
+
+			if (length == 0 || !seekable) {
+				return;
+			}
+			if (!validDate || length < 10 || (count > 0 && date < dates[count - 1])) {
+				seekable = false;
+			} else if (count == 0 || date != dates[count - 1]) {
+				if (count == dates.length) {
+					dates = Arrays.copyOf(dates, count * 2);
+					lineNumbers = Arrays.copyOf(lineNumbers, count * 2);
+					offsets = Arrays.copyOf(offsets, count * 2);
+				}
+				dates[count] = date;
+				lineNumbers[count] = lineNumber;
+				offsets[count] = offset;
+				count++;
+			}
+		}
+
+		private HistoricalDataIndex build (final long indexedLength, final int nextLineNumber, final long checksum) {
+			if (!seekable) {
+				return new HistoricalDataIndex(false, new int[0], new int[0], new long[0], indexedLength, nextLineNumber, checksum);
+			}
+			return new HistoricalDataIndex(true, Arrays.copyOf(dates, count), Arrays.copyOf(lineNumbers, count), Arrays.copyOf(offsets, count), indexedLength, nextLineNumber, checksum);
+		}
+	}
+}
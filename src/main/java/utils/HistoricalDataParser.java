@@ -0,0 +1,362 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+
+import datamodel.FxRateConsumer;
+import datamodel.FxSeries;
+
+/**
+ * Parser of the historical data files: date,time,open,high,low,close (i.e. 2011-01-02,17:00,1.01470,1.01470,1.01470,1.01470)
+ * Works directly on the bytes read into a large NIO buffer: dates, times and prices are parsed without creating
+ * intermediate Strings or date formats, and the rows are added straight into an FxSeries (or any other FxRateConsumer).
+ * Dates must be yyyy-MM-dd and times HH:mm (seconds are ignored). Additional fields are ignored.
+ * Any malformed row stops the parsing with a ParseException reporting its line number (errorOffset).
+ * When the rows are known to be in ascending date order (i.e. from the HistoricalDataIndex), the parsing can start at
+ * the offset of the first row to be loaded and stops at the first row after the end date.
+ */
+public class HistoricalDataParser {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	// Up to 15 significant digits and 22 decimals, both the mantissa and the power of ten are exact doubles
+	private static final int MAX_DIGITS = 15;
+	private static final int MAX_DECIMALS = 22;
+	private static final double[] POWERS_OF_TEN = new double[MAX_DECIMALS + 1];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i=1; i<=MAX_DECIMALS; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+		}
+	}
+
+	private final byte separator;
+	private final boolean sorted;
+	private boolean finished;
+	private byte[] bytes;
+	private int position;
+	private int lineEnd;
+	private int lineNumber;
+	private long rows;
+
+	/**
+	 * @param separator fields separator
+	 * @param sorted rows in ascending date order: the parsing stops at the first row after the end date
+	 */
+	public HistoricalDataParser (final char separator, final boolean sorted) {
+		this.separator = (byte) separator;
+		this.sorted = sorted;
+	}
+
+	/**
+	 * @param file historical data file
+	 * @param currentCurrency currency pair of the file
+	 * @param separator fields separator
+	 * @param startDate first date to be loaded (yyyy-MM-dd), null for no filtering
+	 * @param endDate last date to be loaded (yyyy-MM-dd), null for no filtering
+	 */
+	public static FxSeries parse (final File file, final String currentCurrency, final char separator, final String startDate, final String endDate) throws IOException, ParseException {
+
+		FxSeries series = new FxSeries(currentCurrency, getEstimatedRows(file));
+		parse(file, separator, startDate, endDate, 0, 1, false, series);
+		series.trimToSize();
+
+		return series;
+	}
+
+	/**
+	 * @param file historical data file
+	 * @param separator fields separator
+	 * @param startDate first date to be loaded (yyyy-MM-dd), null for no filtering
+	 * @param endDate last date to be loaded (yyyy-MM-dd), null for no filtering
+	 * @param startOffset byte offset of the first row to be parsed
+	 * @param startLineNumber line number of the first row to be parsed (for the error messages)
+	 * @param sorted rows in ascending date order: the parsing stops at the first row after endDate
+	 * @param consumer receives every row within the dates
+	 * @return number of rows within the dates
+	 */
+	public static long parse (final File file, final char separator, final String startDate, final String endDate, final long startOffset, final int startLineNumber, final boolean sorted, final FxRateConsumer consumer) throws IOException, ParseException {
+		return new HistoricalDataParser(separator, sorted).parse(file, startDate, endDate, startOffset, -1, startLineNumber, consumer);
+	}
+
+	/**
+	 * @param file historical data file
+	 * @param startDate first date to be loaded (yyyy-MM-dd), null for no filtering
+	 * @param endDate last date to be loaded (yyyy-MM-dd), null for no filtering
+	 * @param startOffset byte offset of the first row to be parsed
+	 * @param endOffset byte offset where the parsing stops (-1 for the end of the file)
+	 * @param startLineNumber line number of the first row to be parsed (for the error messages)
+	 * @param consumer receives every row within the dates
+	 * @return number of rows within the dates
+	 */
+	public final long parse (final File file, final String startDate, final String endDate, final long startOffset, final long endOffset, final int startLineNumber, final FxRateConsumer consumer) throws IOException, ParseException {
+
+		int startDay = (startDate == null) ? Integer.MIN_VALUE : (int) LocalDate.parse(startDate).toEpochDay();
+		int endDay = (endDate == null) ? Integer.MAX_VALUE : (int) LocalDate.parse(endDate).toEpochDay();
+
+		lineNumber = startLineNumber - 1;
+		rows = 0;
+		finished = false;
+		parse(file, startOffset, endOffset, consumer, startDay, endDay);
+
+		return rows;
+	}
+
+	// Last line read by parse
+	public final int getLineNumber() { return lineNumber; }
+
+	// Initial capacity of a series holding the whole file (rows are ~48 bytes long)
+	public static int getEstimatedRows (final File file) {
+		return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1024, file.length() / 48));
+	}
+
+	private void parse (final File file, final long startOffset, final long endOffset, final FxRateConsumer consumer, final int startDay, final int endDay) throws IOException, ParseException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		bytes = buffer.array();
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			channel.position(startOffset);
+			long bytesToRead = (endOffset < 0) ? Long.MAX_VALUE : endOffset - startOffset;
+			boolean endOfFile = false;
+
+			while (!endOfFile && !finished) {
+				// Reads up to endOffset
+				((Buffer) buffer).limit(buffer.position() + (int) Math.min(buffer.remaining(), bytesToRead));
+				int read = buffer.hasRemaining() ? channel.read(buffer) : -1;
+				((Buffer) buffer).limit(buffer.capacity());
+				endOfFile = (read < 0);
+				if (read > 0) bytesToRead -= read;
+
+				int limit = buffer.position();
+				int lineStart = 0;
+
+				for (int i=0; i<limit && !finished; i++) {
+					if (bytes[i] == '\n') {
+						parseLine(consumer, lineStart, i, startDay, endDay);
+						lineStart = i + 1;
+					}
+				}
+
+				if (finished) {
+					break;
+				} else if (endOfFile) {
+					// Last line without line break
+					if (lineStart < limit) {
+						parseLine(consumer, lineStart, limit, startDay, endDay);
+					}
+				} else {
+					if (lineStart == 0 && limit == bytes.length) {
+						throw new ParseException("Line " + (lineNumber + 1) + " longer than " + BUFFER_SIZE + " bytes", lineNumber + 1);
+					}
+					// Keep the incomplete line for the next read
+					System.arraycopy(bytes, lineStart, bytes, 0, limit - lineStart);
+					((Buffer) buffer).position(limit - lineStart);
+				}
+			}
+		}
+	}
+
+	private void parseLine (final FxRateConsumer consumer, final int lineStart, final int end, final int startDay, final int endDay) throws ParseException {
+
+		lineNumber++;
+		position = lineStart;
+		lineEnd = (end > lineStart && bytes[end - 1] == '\r') ? end - 1 : end;
+
+		skipWhitespace();
+		if (position >= lineEnd) {
+			// Empty line
+			return;
+		}
+
+		int epochDay = parseDate();
+		if (epochDay < startDay || epochDay > endDay) {
+			// No further row can be within the dates
+			finished = sorted && (epochDay > endDay);
+			return;
+		}
+
+		int minuteOfDay = parseTime();
+		float open = parsePrice("open");
+		float high = parsePrice("high");
+		float low = parsePrice("low");
+		float close = parsePrice("close");
+
+		consumer.add((epochDay * 1440) + minuteOfDay, open, high, low, close);
+		rows++;
+	}
+
+	// yyyy-MM-dd as days since epoch
+	private int parseDate () throws ParseException {
+
+		int fieldEnd = nextField();
+		int valueEnd = trim(fieldEnd);
+
+		if (valueEnd - position != 10 || bytes[position + 4] != '-' || bytes[position + 7] != '-') {
+			throw error("date", valueEnd);
+		}
+		int year = parseDigits(position, 4, "date", valueEnd);
+		int month = parseDigits(position + 5, 2, "date", valueEnd);
+		int day = parseDigits(position + 8, 2, "date", valueEnd);
+		// Days beyond the length of the month (i.e. 2011-02-29, 2011-04-31) are rejected, not rolled over into the next month
+		if (month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year))) {
+			throw error("date", valueEnd);
+		}
+		position = fieldEnd + 1;
+
+		return epochDay(year, month, day);
+	}
+
+	// HH:mm[:ss] as minutes of the day
+	private int parseTime () throws ParseException {
+
+		int fieldEnd = nextField();
+		int valueEnd = trim(fieldEnd);
+
+		int length = valueEnd - position;
+
+		if ((length != 5 && length != 8) || bytes[position + 2] != ':') {
+			throw error("time", valueEnd);
+		}
+		int hours = parseDigits(position, 2, "time", valueEnd);
+		int minutes = parseDigits(position + 3, 2, "time", valueEnd);
+		if (hours > 23 || minutes > 59) {
+			throw error("time", valueEnd);
+		}
+		position = fieldEnd + 1;
+
+		return (hours * 60) + minutes;
+	}
+
+	// Decimal price, rounded exactly as Float.parseFloat
+	private float parsePrice (final String fieldName) throws ParseException {
+
+		int fieldEnd = nextField();
+		int valueEnd = trim(fieldEnd);
+
+		int i = position;
+		boolean negative = false;
+
+		if (i < valueEnd && (bytes[i] == '-' || bytes[i] == '+')) {
+			negative = (bytes[i] == '-');
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = 0;
+		boolean anyDigit = false;
+		boolean decimalPoint = false;
+		boolean simple = true;
+
+		for (; i<valueEnd && simple; i++) {
+			byte b = bytes[i];
+			if (b >= '0' && b <= '9') {
+				anyDigit = true;
+				// Leading zeros are not significant
+				if (mantissa != 0 || b != '0') {
+					if (++digits > MAX_DIGITS) simple = false;
+				}
+				mantissa = (mantissa * 10) + (b - '0');
+				if (decimalPoint && ++decimals > MAX_DECIMALS) simple = false;
+			} else if (b == '.' && !decimalPoint) {
+				decimalPoint = true;
+			} else {
+				simple = false;
+			}
+		}
+
+		float result;
+
+		if (simple && anyDigit) {
+			// Both values are exact doubles, so the division is correctly rounded
+			double value = mantissa / POWERS_OF_TEN[decimals];
+			// Rounding again to float is exact unless the double lies exactly halfway between two floats
+			if ((Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L) {
+				result = slowParse(valueEnd, fieldName);
+			} else {
+				result = (float) value;
+			}
+			if (negative) result = -result;
+		} else {
+			// Exponents, too many digits...
+			result = slowParse(valueEnd, fieldName);
+		}
+
+		position = fieldEnd + 1;
+		return result;
+	}
+
+	private float slowParse (final int valueEnd, final String fieldName) throws ParseException {
+		try {
+			return Float.parseFloat(new String(bytes, position, valueEnd - position, StandardCharsets.US_ASCII));
+		} catch (NumberFormatException e) {
+			throw error(fieldName, valueEnd);
+		}
+	}
+
+	private int parseDigits (final int from, final int count, final String fieldName, final int valueEnd) throws ParseException {
+		int value = 0;
+		for (int i=from; i<from+count; i++) {
+			byte b = bytes[i];
+			if (b < '0' || b > '9') {
+				throw error(fieldName, valueEnd);
+			}
+			value = (value * 10) + (b - '0');
+		}
+		return value;
+	}
+
+	// End of the current field (separator or end of line)
+	private int nextField () throws ParseException {
+		if (position > lineEnd) {
+			throw new ParseException("Missing fields at line " + lineNumber, lineNumber);
+		}
+		int i = position;
+		while (i < lineEnd && bytes[i] != separator) {
+			i++;
+		}
+		return i;
+	}
+
+	// Skips the leading whitespace of the field and returns the end of its value, without trailing whitespace
+	private int trim (final int fieldEnd) {
+		skipWhitespace();
+		int valueEnd = fieldEnd;
+		while (valueEnd > position && (bytes[valueEnd - 1] == ' ' || bytes[valueEnd - 1] == '\t')) {
+			valueEnd--;
+		}
+		return valueEnd;
+	}
+
+	private void skipWhitespace () {
+		while (position < lineEnd && (bytes[position] == ' ' || bytes[position] == '\t')) {
+			position++;
+		}
+	}
+
+	private ParseException error (final String fieldName, final int valueEnd) {
+		String field = new String(bytes, position, Math.max(0, valueEnd - position), StandardCharsets.US_ASCII);
+		return new ParseException("Invalid " + fieldName + " at line " + lineNumber + ": '" + field + "'", lineNumber);
+	}
+
+	// Days since 1970-01-01 of a proleptic gregorian date
+	private static int epochDay (final int year, final int month, final int day) {
+		int y = (month <= 2) ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yearOfEra = y - (era * 400);
+		int dayOfYear = ((153 * (month + (month > 2 ? -3 : 9))) + 2) / 5 + day - 1;
+		int dayOfEra = (yearOfEra * 365) + (yearOfEra / 4) - (yearOfEra / 100) + dayOfYear;
+		return (era * 146097) + dayOfEra - 719468;
+	}
+}
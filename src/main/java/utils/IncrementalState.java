@@ -0,0 +1,205 @@
+package utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import calculationservices.StreamingCalculationEngine;
+import datamodel.CalcParameters;
+
+/**
+ * State of the last incremental calculation of a currency pair file: the streaming engine of every scan (level
+ * counters and open chains) and the offset of the first row not calculated yet.
+ * The next run resumes the engines with the rows appended since then, instead of recalculating the whole history.
+ * The state is only used when it was calculated with the same dates and parameters, and the file still starts with
+ * the rows already calculated (checked with the checksum of every byte before the offset, carried over from run to
+ * run so only the appended bytes are added when writing); otherwise the whole file is recalculated. Only complete lines (ending with a line break) are calculated.
+ *
+ * Format: magic, version, start date, end date, offset, line number, rows, checksum, scans (parameters and engine state)
+ */
+public class IncrementalState {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(IncrementalState.class);
+
+	private static final int MAGIC = 0x46584953; // FXIS
+	private static final int VERSION = 2;
+	private static final int BUFFER_SIZE = 4096;
+	private static final String STATE_FILE_EXTENSION = ".state";
+
+	private final long fileOffset;
+	private final int lineNumber;
+	private final long totalRows;
+	private final List<StreamingCalculationEngine> engines;
+	// Checksum of the bytes before fileOffset
+	private final CRC32 checksum;
+
+	private IncrementalState (final long fileOffset, final int lineNumber, final long totalRows, final List<StreamingCalculationEngine> engines, final CRC32 checksum) {
+		this.fileOffset = fileOffset;
+		this.lineNumber = lineNumber;
+		this.totalRows = totalRows;
+		this.engines = engines;
+		this.checksum = checksum;
+	}
+
+	public static boolean isEnabled () {
+		return ApplicationProperties.getBooleanProperty("execution.incremental");
+	}
+
+	public static File getStateFile (final String currentCurrency) {
+		return CacheFiles.getCacheFile(currentCurrency, STATE_FILE_EXTENSION);
+	}
+
+	public final long getFileOffset() { return fileOffset; }
+	public final int getLineNumber() { return lineNumber; }
+	public final long getTotalRows() { return totalRows; }
+	public final List<StreamingCalculationEngine> getEngines() { return engines; }
+
+	// Returns the state saved for the same dates and scans over the first rows of the current file, null if there is none
+	public static IncrementalState read (final String currentCurrency, final String startDate, final String endDate, final List<CalcParameters> scans) {
+
+		File stateFile = getStateFile(currentCurrency);
+		File sourceFile = HistoricalDataCache.getSourceFile(currentCurrency);
+
+		if (!stateFile.isFile()) {
+			return null;
+		}
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				logger.info ("Incremental state of " + currentCurrency + " discarded: unknown format");
+				return null;
+			}
+			if (!input.readUTF().equals(String.valueOf(startDate)) || !input.readUTF().equals(String.valueOf(endDate))) {
+				logger.info ("Incremental state of " + currentCurrency + " discarded: different dates");
+				return null;
+			}
+
+			long fileOffset = input.readLong();
+			int lineNumber = input.readInt();
+			long totalRows = input.readLong();
+			long savedChecksum = input.readLong();
+
+			CRC32 checksum = new CRC32();
+			if (sourceFile.length() >= fileOffset) {
+				CacheFiles.updateChecksum(checksum, sourceFile, 0, fileOffset);
+			}
+			if (sourceFile.length() < fileOffset || checksum.getValue() != savedChecksum) {
+				logger.info ("Incremental state of " + currentCurrency + " discarded: the file has been modified, not only appended");
+				return null;
+			}
+
+			if (input.readInt() != scans.size()) {
+				logger.info ("Incremental state of " + currentCurrency + " discarded: different parameters");
+				return null;
+			}
+
+			List<StreamingCalculationEngine> engines = new ArrayList<StreamingCalculationEngine>();
+			for (CalcParameters scan : scans) {
+				if (input.readFloat() != scan.getIncreasePercentage() || input.readFloat() != scan.getDecreasePercentage()
+						|| input.readInt() != scan.getMaxLevels() || input.readInt() != scan.getMaxHorizon()
+						|| !input.readUTF().equals(String.valueOf(scan.getMaxHorizonUnit()))) {
+					logger.info ("Incremental state of " + currentCurrency + " discarded: different parameters");
+					return null;
+				}
+				engines.add(StreamingCalculationEngine.readState(scan, input));
+			}
+
+			logger.info ("Incremental state of " + currentCurrency + " read from " + stateFile + " (" + totalRows + " rows already calculated)");
+			return new IncrementalState(fileOffset, lineNumber, totalRows, engines, checksum);
+
+		} catch (Exception e) {
+			logger.error ("Exception while reading the incremental state of " + currentCurrency + ": " + e.getClass() + " - " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @param currentCurrency currency pair
+	 * @param startDate start date of the calculation
+	 * @param endDate end date of the calculation
+	 * @param scans parameters of every engine (same order)
+	 * @param engines engines after calculating the rows up to fileOffset
+	 * @param previous state the engines were resumed from (null: calculated from the beginning of the file)
+	 * @param fileOffset offset of the first row not calculated
+	 * @param lineNumber line number of the first row not calculated
+	 * @param totalRows rows calculated so far
+	 */
+	public static void write (final String currentCurrency, final String startDate, final String endDate, final List<CalcParameters> scans, final List<StreamingCalculationEngine> engines, final IncrementalState previous, final long fileOffset, final int lineNumber, final long totalRows) {
+
+		File stateFile = getStateFile(currentCurrency);
+
+		try {
+			// Only the bytes calculated in this run are added to the checksum of the previous state
+			CRC32 checksum = (previous != null) ? previous.checksum : new CRC32();
+			CacheFiles.updateChecksum(checksum, HistoricalDataCache.getSourceFile(currentCurrency), (previous != null) ? previous.fileOffset : 0, fileOffset);
+			final long checksumValue = checksum.getValue();
+
+			CacheFiles.atomicWrite(stateFile, new CacheFiles.TempFileWriter() {
+				@Override
+				public void write (final File tempFile) throws IOException {
+					try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+						output.writeInt(MAGIC);
+						output.writeInt(VERSION);
+						output.writeUTF(String.valueOf(startDate));
+						output.writeUTF(String.valueOf(endDate));
+						output.writeLong(fileOffset);
+						output.writeInt(lineNumber);
+						output.writeLong(totalRows);
+						output.writeLong(checksumValue);
+
+						output.writeInt(scans.size());
+						for (int i=0; i<scans.size(); i++) {
+							CalcParameters scan = scans.get(i);
+							output.writeFloat(scan.getIncreasePercentage());
+							output.writeFloat(scan.getDecreasePercentage());
+							output.writeInt(scan.getMaxLevels());
+							output.writeInt(scan.getMaxHorizon());
+							output.writeUTF(String.valueOf(scan.getMaxHorizonUnit()));
+							engines.get(i).writeState(output);
+						}
+					}
+				}
+			});
+			logger.info ("Incremental state of " + currentCurrency + " written: " + stateFile + " (" + totalRows + " rows)");
+		} catch (Exception e) {
+			logger.error ("Exception while writing the incremental state of " + currentCurrency + ": " + e.getClass() + " - " + e.getMessage());
+		}
+	}
+
+	// Length of the file up to its last line break
+	public static long getCompleteLength (final File file) throws IOException {
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			byte[] bytes = new byte[BUFFER_SIZE];
+			long end = randomAccessFile.length();
+
+			while (end > 0) {
+				int length = (int) Math.min(bytes.length, end);
+				randomAccessFile.seek(end - length);
+				randomAccessFile.readFully(bytes, 0, length);
+				for (int i=length-1; i>=0; i--) {
+					if (bytes[i] == '\n') {
+						return end - length + i + 1;
+					}
+				}
+				end -= length;
+			}
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,248 @@
+package utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datamodel.CalcParameters;
+import datamodel.CalcResult;
+
+/**
+ * Persistent cache of the calculation results.
+ * Every result is stored in its own file, named after the hash of everything it depends on: the fingerprint of
+ * the historical data (size and last modification time of the file, or row count and checksum of the database
+ * rows), the dates and the parameters. A changed input gets a different key, so stale results are never read;
+ * they are removed as the least recently used ones once the cache exceeds main.resultCacheMaxSize (MB).
+ * Reading a result updates its last modification time, which is used as its last access time.
+ * The size of the cache is scanned once per run and then tracked on every write: the directory is only scanned
+ * again to evict results once it exceeds the maximum size.
+ *
+ * Format: magic, version, key, total historical data, total calculations, max. levels, up hits, down hits
+ */
+public class ResultCache {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(ResultCache.class);
+
+	private static final int MAGIC = 0x46585243; // FXRC
+	private static final int VERSION = 1;
+	private static final String RESULT_FILE_EXTENSION = ".result";
+
+	// Size of the result files (bytes), -1 until the cache directory is scanned
+	private static long cacheSize = -1;
+
+	public static boolean isEnabled () {
+		return ApplicationProperties.getBooleanProperty("main.resultCache");
+	}
+
+	// Result files are kept in main.resultCachePath, or with the binary cache files when empty
+	public static File getCachePath () {
+		String cachePath = ApplicationProperties.getStringProperty("main.resultCachePath");
+		if (cachePath == null || cachePath.isEmpty()) {
+			cachePath = CacheFiles.getCachePath();
+		}
+		return new File(cachePath);
+	}
+
+	// Fingerprint of the historical data of the currency pair, null if it cannot be calculated (results are not cached)
+	public static String getFingerprint (final String datasource, final String currentCurrency, final String startDate, final String endDate) {
+
+		if ("database".equals(datasource)) {
+			String checksum = DatabaseUtils.getHistoricalRatesChecksum(currentCurrency, startDate, endDate);
+			return (checksum == null) ? null : "database|" + checksum;
+		}
+
+		File sourceFile = HistoricalDataCache.getSourceFile(currentCurrency);
+		if (!sourceFile.isFile()) {
+			return null;
+		}
+		return "file|" + sourceFile.length() + "|" + sourceFile.lastModified();
+	}
+
+	// Key of the result of the currency pair for the given fingerprint, dates and parameters
+	public static String getKey (final String currentCurrency, final String fingerprint, final String startDate, final String endDate, final CalcParameters params) {
+
+		String text = VERSION + "|" + currentCurrency + "|" + fingerprint + "|" + startDate + "|" + endDate + "|" + params.getIncreasePercentage() + "|" + params.getDecreasePercentage()
+			+ "|" + params.getMaxLevels() + "|" + params.getMaxHorizon() + "|" + params.getMaxHorizonUnit();
+
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder(currentCurrency).append('-');
+			for (int i=0; i<16; i++) {
+				key.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+			}
+			return key.toString();
+		} catch (Exception e) {
+			// SHA-256 is available in every JVM
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Returns the cached result, null if there is none. The times are the ones of this run
+	public static CalcResult get (final String key, final String currentCurrency, final CalcParameters params) {
+
+		File resultFile = new File(getCachePath(), key + RESULT_FILE_EXTENSION);
+
+		if (!resultFile.isFile()) {
+			return null;
+		}
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(resultFile)))) {
+
+			if (input.readInt() != MAGIC || input.readInt() != VERSION || !input.readUTF().equals(key)) {
+				logger.debug ("Unknown result cache file " + resultFile);
+				return null;
+			}
+
+			long totalHistDataLoaded = input.readLong();
+			long totalCalculations = input.readLong();
+			int maxLevels = input.readInt();
+			long[] upHits = new long[maxLevels+1];
+			long[] downHits = new long[maxLevels+1];
+			for (int level=1; level<=maxLevels; level++) {
+				upHits[level] = input.readLong();
+				downHits[level] = input.readLong();
+			}
+
+			// Last access time for the eviction
+			long now = System.currentTimeMillis();
+			resultFile.setLastModified(now);
+
+			return new CalcResult(currentCurrency, params.getIncrease(), params.getDecrease(), params.getMaxLevels(), now, now, totalHistDataLoaded, now, now, totalCalculations, upHits, downHits);
+
+		} catch (Exception e) {
+			logger.error ("Exception while reading the cached result " + resultFile + ": " + e.getClass() + " - " + e.getMessage());
+			return null;
+		}
+	}
+
+	public static void put (final String key, final CalcResult calcResult) {
+
+		File resultFile = new File(getCachePath(), key + RESULT_FILE_EXTENSION);
+		// A result calculated again replaces the previous file
+		long previousLength = resultFile.length();
+
+		try {
+			CacheFiles.atomicWrite(resultFile, new CacheFiles.TempFileWriter() {
+				@Override
+				public void write (final File tempFile) throws IOException {
+					try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+						output.writeInt(MAGIC);
+						output.writeInt(VERSION);
+						output.writeUTF(key);
+						output.writeLong(calcResult.getTotalHistDataLoaded());
+						output.writeLong(calcResult.getTotalCalculations());
+						output.writeInt(calcResult.getmaxLevels());
+						for (int level=1; level<=calcResult.getmaxLevels(); level++) {
+							output.writeLong(calcResult.getUpHits(level));
+							output.writeLong(calcResult.getDownHits(level));
+						}
+					}
+				}
+			});
+			logger.debug ("Result cached: " + resultFile);
+		} catch (Exception e) {
+			logger.error ("Exception while writing the cached result " + resultFile + ": " + e.getClass() + " - " + e.getMessage());
+			return;
+		}
+
+		addSize(resultFile.length() - previousLength);
+	}
+
+	// Tracks the size of the cache, evicting results when it exceeds main.resultCacheMaxSize (MB)
+	private static synchronized void addSize (final long length) {
+
+		if (cacheSize < 0) {
+			cacheSize = getSize(getResultFiles());
+		} else {
+			cacheSize += length;
+		}
+
+		if (cacheSize > ApplicationProperties.getIntProperty("main.resultCacheMaxSize") * 1024L * 1024L) {
+			evict();
+		}
+	}
+
+	// Removes the least recently used results until the cache fits in main.resultCacheMaxSize (MB)
+	public static synchronized void evict () {
+
+		long maxSize = ApplicationProperties.getIntProperty("main.resultCacheMaxSize") * 1024L * 1024L;
+
+		File[] resultFiles = getResultFiles();
+		// Access times are read once, as other workers may update them while sorting
+		final Map<File, Long> accessTimes = new HashMap<File, Long>();
+		for (File resultFile : resultFiles) {
+			accessTimes.put(resultFile, resultFile.lastModified());
+		}
+		long size = getSize(resultFiles);
+
+		if (size > maxSize) {
+			Arrays.sort(resultFiles, new Comparator<File>() {
+				@Override
+				public int compare (final File file1, final File file2) {
+					return Long.compare(accessTimes.get(file1), accessTimes.get(file2));
+				}
+			});
+
+			int removed = 0;
+			for (int i=0; i<resultFiles.length && size > maxSize; i++) {
+				size -= resultFiles[i].length();
+				if (resultFiles[i].delete()) {
+					removed++;
+				}
+			}
+			logger.info ("Result cache evicted " + removed + " results (max. size " + (maxSize / (1024 * 1024)) + " MB)");
+		}
+		cacheSize = size;
+	}
+
+	// Removes every cached result
+	public static synchronized void clear () {
+
+		int removed = 0;
+		for (File resultFile : getResultFiles()) {
+			if (resultFile.delete()) {
+				removed++;
+			}
+		}
+		cacheSize = -1;
+		logger.info ("Result cache cleared: " + removed + " results removed from " + getCachePath());
+	}
+
+	private static long getSize (final File[] resultFiles) {
+		long size = 0;
+		for (File resultFile : resultFiles) {
+			size += resultFile.length();
+		}
+		return size;
+	}
+
+	private static File[] getResultFiles () {
+		List<File> resultFiles = new ArrayList<File>();
+		File[] files = getCachePath().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(RESULT_FILE_EXTENSION)) {
+					resultFiles.add(file);
+				}
+			}
+		}
+		return resultFiles.toArray(new File[resultFiles.size()]);
+	}
+}